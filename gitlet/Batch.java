@@ -0,0 +1,119 @@
+package gitlet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Runs a script of gitlet commands in one process.
+ *
+ *  Each line of the script is one command, written as on a shell command
+ *  line without the leading "gitlet": words are separated by blanks and
+ *  may be quoted with '...' or "...", and a backslash escapes the next
+ *  character.  Blank lines and lines starting with '#' are ignored.
+ *
+ *  Commands work on the in-memory state of the repository, which is
+ *  written out only at a "checkpoint" line and at the end of the script,
+ *  so a long import does not rewrite the index, commit-graph and refs
+ *  after every command.  A command that fails reports its error, prefixed
+ *  with its line number, and the script goes on: user errors are found
+ *  before a command changes anything.  An internal error, though, may
+ *  leave a command half done, so it stops the script and discards the
+ *  staging area and refs as changed since the last checkpoint, as the
+ *  daemon does for a failed request.  Otherwise whatever the commands did
+ *  is written out even if reading the script fails.
+ */
+class Batch {
+
+    /** Runs every command read from IN, and returns the number that
+     *  failed. */
+    static int run(BufferedReader in) throws IOException {
+        int failed = 0;
+        int number = 0;
+        boolean discarded = false;
+        String line;
+        try {
+            while ((line = in.readLine()) != null) {
+                number += 1;
+                try {
+                    String[] args = split(line);
+                    if (args.length == 0 || args[0].startsWith("#")) {
+                        continue;
+                    }
+                    run(args);
+                } catch (GitletException excp) {
+                    System.out.println("line " + number + ": " + excp.getMessage());
+                    failed += 1;
+                } catch (RuntimeException excp) {
+                    Repository.discard();
+                    discarded = true;
+                    System.out.println("line " + number + ": Internal error: " + excp);
+                    System.out.println("Stopped; changes since the last checkpoint "
+                                       + "were discarded.");
+                    return failed + 1;
+                }
+            }
+        } finally {
+            if (!discarded) {
+                Repository.flush();
+            }
+        }
+        return failed;
+    }
+
+    private static void run(String[] args) {
+        switch (args[0]) {
+            case "checkpoint":
+                if (args.length != 1) {
+                    throw Utils.error("Incorrect operands");
+                }
+                Repository.flush();
+                break;
+            case "batch":
+            case "daemon":
+                throw Utils.error("Cannot run %s inside a batch.", args[0]);
+            default:
+                Main.run(args);
+        }
+    }
+
+    /** Returns the words of LINE, with quotes and escapes removed. */
+    static String[] split(String line) {
+        List<String> words = new ArrayList<>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i += 1) {
+            char c = line.charAt(i);
+            if (quote == 0 && Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+                continue;
+            }
+            if (word == null) {
+                word = new StringBuilder();
+            }
+            if (c == '\\' && quote != '\'') {
+                i += 1;
+                if (i == line.length()) {
+                    throw Utils.error("Unfinished escape.");
+                }
+                word.append(line.charAt(i));
+            } else if (c == quote) {
+                quote = 0;
+            } else if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+            } else {
+                word.append(c);
+            }
+        }
+        if (quote != 0) {
+            throw Utils.error("Unmatched quote.");
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[0]);
+    }
+}
@@ -1,17 +1,32 @@
 package gitlet;
 
-import java.io.File;
 import java.io.Serializable;
 
+/** A snapshot of one working-tree file.  The bytes themselves live in the
+ *  ObjectStore under an id that depends only on the content, so the same
+ *  content under two names is stored once.  A Blob never holds the bytes:
+ *  they are streamed through a fixed-size buffer, so memory use does not
+ *  depend on the size of the file. */
 public class Blob implements Serializable {
     private String id;
     private String name;
-    private byte[] file;
 
+    /** A blob for the working-tree file NAME, hashed but not stored.  The
+     *  file is only read if the Index has no up-to-date id for it. */
     public Blob(String name) {
         this.name = name;
-        this.file = Utils.readContents(new File(this.name));
-        this.id = Utils.sha1(this.name, this.file);
+        this.id = Index.idOf(name);
+    }
+
+    private Blob(String name, String id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    /** Returns a blob for the working-tree file NAME after making sure its
+     *  content is in the object store. */
+    public static Blob store(String name) {
+        return new Blob(name, Index.store(name));
     }
 
     public String getID() {
@@ -22,8 +37,4 @@ public class Blob implements Serializable {
         return name;
     }
 
-    public byte[] getFile() {
-        return file;
-    }
-
 }
@@ -1,227 +1,182 @@
 package gitlet;
 
 import java.io.File;
-import java.io.Serializable;
+import java.util.List;
 import java.util.TreeMap;
-import java.util.HashSet;
 
 import static gitlet.Utils.join;
-import static gitlet.Utils.readObject;
-
-public class Branch implements Serializable {
-
-    public static final File BRANCHES_CWD = join(Repository.GITLET_DIR, "branches");
-    private TreeMap<String, Blob> stageAdd = new TreeMap<>();
-    private TreeMap<String, Blob> stageRemove = new TreeMap<>();
-    private HashSet<String> remved = new HashSet<>();
-    private TreeMap<String, String> allBlobs = new TreeMap<>();
-    private TreeMap<String, Commit> commits = new TreeMap<>();
-    private Commit latestCommit;
-    private Branch currentBranch;
+
+/** A branch: a name and the commit it points at.  Both live in the
+ *  branch's ref (see Refs), and the staging area it commits from is the
+ *  repository's Stage. */
+public class Branch {
+
+    /** Id of the head commit of this branch. */
+    private String latestCommit;
     private String name;
-    private boolean merged = false;
-    private String oldBranch;
 
     public Branch(String branch) {
-        boolean exits = Utils.join(BRANCHES_CWD, branch).exists();
-        if (exits) {
-            currentBranch = getCurrentBranch(branch);
-        } else {
-            currentBranch = this;
-        }
-        currentBranch.name = branch;
+        name = branch;
+        latestCommit = Refs.read(branch);
     }
 
     public Branch(String branch, Branch oldBranch) {
-        boolean exits = Utils.join(BRANCHES_CWD, branch).exists();
-        if (exits) {
-            currentBranch = getCurrentBranch(branch);
-        } else {
-            currentBranch = this;
-        }
-        currentBranch.name = branch;
-        currentBranch.stageAdd.putAll(oldBranch.stageAdd);
-        currentBranch.stageRemove.putAll(oldBranch.stageRemove);
-        currentBranch.remved = (HashSet<String>) oldBranch.remved.clone();
-        currentBranch.allBlobs.putAll(oldBranch.allBlobs);
-        currentBranch.commits.putAll(oldBranch.commits);
-        currentBranch.latestCommit = oldBranch.latestCommit;
+        name = branch;
+        latestCommit = oldBranch.latestCommit;
+        saveBranch();
     }
 
     public void makeAdd(String file) {
-        Blob newBlob = new Blob(file);
-        if (currentBranch.stageRemove.containsKey(newBlob.getID())) {
-            currentBranch.stageRemove.remove(newBlob.getID());
-            currentBranch.remved.remove(newBlob.getName());
-        } else if (!tracked(newBlob.getID())
-                && !currentBranch.stageAdd.containsKey(newBlob.getID())) {
-            currentBranch.stageAdd.put(newBlob.getID(), newBlob);
-            currentBranch.allBlobs.put(newBlob.getID(), newBlob.getName());
+        stage(Blob.store(file));
+    }
+
+    /** Stages every one of FILES, storing their contents in parallel. */
+    public void makeAdd(List<String> files) {
+        for (Blob blob : WorkingTree.store(files)) {
+            stage(blob);
+        }
+    }
+
+    private void stage(Blob newBlob) {
+        String name = newBlob.getName();
+        if (Stage.removed().containsKey(name)) {
+            Stage.unstage(name);
+        } else if (tracked(name, newBlob.getID())) {
+            Stage.unstage(name);
+        } else if (!newBlob.getID().equals(Stage.added().get(name))) {
+            Stage.addFile(newBlob);
         }
-        currentBranch.saveBranch();
     }
 
     public void makeCommit() {
         Commit newCommit = new Commit();
-        currentBranch.commits.put(newCommit.getID(), newCommit);
         newCommit.saveCommit();
-        currentBranch.latestCommit = newCommit;
+        latestCommit = newCommit.getID();
+        saveBranch();
     }
 
     public void makeCommit(String message) {
-        if (currentBranch.stageAdd.size() == 0 && currentBranch.stageRemove.size() == 0) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+        if (Stage.isEmpty()) {
+            throw Utils.error("No changes added to the commit.");
         }
-        Commit newCommit = new Commit(message, currentBranch.latestCommit);
-        newCommit.addBlobs(currentBranch.stageAdd, currentBranch.stageRemove);
-        currentBranch.stageAdd.clear();
-        currentBranch.stageRemove.clear();
-        currentBranch.remved.clear();
-        currentBranch.commits.put(newCommit.getID(), newCommit);
+        Commit newCommit = new Commit(message, getLatestCommit());
+        newCommit.addBlobs(Stage.added(), Stage.removed());
+        Stage.clear();
         newCommit.saveCommit();
-        currentBranch.latestCommit = newCommit;
-        currentBranch.saveBranch();
+        latestCommit = newCommit.getID();
+        saveBranch();
     }
 
     public void remove(String file) {
         File oldFile = join(Repository.CWD, file);
-        boolean ran = false;
-        if (oldFile.exists()) {
-            Blob newBlob = new Blob(file);
-            if (currentBranch.stageAdd.containsKey(newBlob.getID())) {
-                currentBranch.stageAdd.remove(newBlob.getID());
-                ran = true;
-            } else if (tracked(newBlob.getID())) {
-                currentBranch.stageRemove.put(newBlob.getID(), newBlob);
-                currentBranch.remved.add(newBlob.getName());
-                ran = true;
-                oldFile.delete();
-            }
-            if (!ran) {
-                System.out.println("No reason to remove the file.");
-                System.exit(0);
-                return;
-            }
-            currentBranch.saveBranch();
+        String trackedID = getLatestCommit().getBlobID(file);
+        if (Stage.added().containsKey(file)) {
+            Stage.unstage(file);
+        } else if (trackedID != null) {
+            Stage.removeFile(file, trackedID);
+            oldFile.delete();
+            Index.remove(file);
         } else {
-            remved.add(file);
+            throw Utils.error("No reason to remove the file.");
         }
     }
 
     public void log() {
-        Commit holder = currentBranch.latestCommit;
-        while (holder != null) {
-            if (merged) {
-                printlog(holder.getID(), holder.getTime(), holder.getMessage(),
-                        currentBranch.oldBranch, currentBranch.latestCommit.getParent().getID());
-                currentBranch.merged = false;
+        int holder = CommitGraph.position(latestCommit);
+        while (holder != -1) {
+            int parent = CommitGraph.parent(holder);
+            int second = CommitGraph.secondParent(holder);
+            if (second != -1) {
+                printlog(CommitGraph.id(holder), CommitGraph.time(holder),
+                        CommitGraph.message(holder), CommitGraph.id(second),
+                        CommitGraph.id(parent));
             } else {
-                printlog(holder.getID(), holder.getTime(), holder.getMessage());
+                printlog(CommitGraph.id(holder), CommitGraph.time(holder),
+                        CommitGraph.message(holder));
             }
             System.out.println();
-            holder = holder.getParent();
+            holder = parent;
         }
     }
 
 
     public void find(String message) {
-        boolean found = false;
-        File commitFolder = new File(Commit.COMMIT_CWD.getPath());
-        for (File file : commitFolder.listFiles()) {
-            Commit commit = Utils.readObject(file, Commit.class);
-            if (commit.getMessage().equals(message)) {
-                System.out.println(commit.getID());
-                found = true;
-            }
+        printFound(MessageIndex.find(message));
+    }
+
+    public void grep(String query) {
+        printFound(MessageIndex.grep(query));
+    }
+
+    private void printFound(List<String> ids) {
+        for (String id : ids) {
+            System.out.println(id);
         }
-        if (!found) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+        if (ids.isEmpty()) {
+            throw Utils.error("Found no commit with that message.");
         }
     }
 
     public void printStatus() {
         System.out.println("=== Staged Files ===");
-        for (String file : currentBranch.stageAdd.keySet()) {
-            String n = currentBranch.stageAdd.get(file).getName();
-            System.out.println(n);
+        for (String file : Stage.added().keySet()) {
+            System.out.println(file);
         }
         System.out.println();
         System.out.println("=== Removed Files ===");
-        for (String thisname : currentBranch.remved) {
+        for (String thisname : Stage.removed().keySet()) {
             System.out.println(thisname);
         }
         System.out.println();
+        WorkingTree.Status status = WorkingTree.status(getLatestCommit(),
+                Stage.added(), Stage.removed());
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String thisname : status.modified) {
+            changes.put(thisname, " (modified)");
+        }
+        for (String thisname : status.deleted) {
+            changes.put(thisname, " (deleted)");
+        }
         System.out.println("=== Modifications Not Staged For Commit ===");
+        for (String thisname : changes.keySet()) {
+            System.out.println(thisname + changes.get(thisname));
+        }
         System.out.println();
         System.out.println("=== Untracked Files ===");
+        for (String thisname : status.untracked) {
+            System.out.println(thisname);
+        }
         System.out.println();
     }
 
     public void checkout(File fileName) {
-        Commit commit = currentBranch.latestCommit;
-        TreeMap<String, Blob> blobs = commit.getBlobs();
-        for (String blob : blobs.keySet()) {
-            Blob file = blobs.get(blob);
-            if (file.getName().equals(fileName.getName())) {
-                restoreBlob(file);
-            }
+        Commit commit = getLatestCommit();
+        String id = commit.getBlobID(fileName.getPath());
+        if (id != null) {
+            WorkingTree.restore(fileName.getPath(), id);
         }
-        currentBranch.saveBranch();
-
     }
 
     public void checkout(String id, String fileName) {
-        boolean hasid = false;
-        File commitFolder = new File(Commit.COMMIT_CWD.getPath());
-        for (File thiscommits : commitFolder.listFiles()) {
-            Commit commit = Utils.readObject(thiscommits, Commit.class);
-            if (commit.getID().equals(id) || commit.getID().substring(0, 8).equals(id)) {
-                for (String blob : commit.getBlobs().keySet()) {
-                    Blob file = commit.getBlobs().get(blob);
-                    if (file.getName().equals(fileName)) {
-                        restoreBlob(file);
-                        currentBranch.saveBranch();
-                        return;
-                    }
-                }
-                System.out.println("File does not exist in that commit");
-                System.exit(0);
-                return;
-            }
+        String fullID = CommitGraph.resolve(id);
+        if (fullID == null) {
+            throw Utils.error("No commit with that id exists.");
         }
-        System.out.println("No commit with that id exists.");
-        System.exit(0);
-    }
-
-    public void setFiles() {
-        clear();
-        for (Blob blob : currentBranch.latestCommit.getBlobs().values()) {
-            restoreBlob(blob);
+        String blob = Repository.getCommit(fullID).getBlobID(fileName);
+        if (blob == null) {
+            throw Utils.error("File does not exist in that commit");
         }
-        currentBranch.saveBranch();
+        WorkingTree.restore(fileName, blob);
     }
 
-    public void setFiles(Commit commit) {
-        clear();
-        for (Blob blob : commit.getBlobs().values()) {
-            restoreBlob(blob);
-        }
-        currentBranch.saveBranch();
+    /** Replaces the files of commit FROM in the working tree with those of
+     *  this branch's head. */
+    public void setFiles(Commit from) {
+        WorkingTree.switchTo(from, getLatestCommit());
     }
 
     public void delete() {
-        File branch = join(BRANCHES_CWD, currentBranch.name);
-        branch.delete();
-    }
-
-    private void restoreBlob(Blob blob) {
-        File file = join(Repository.CWD, blob.getName());
-        if (file.exists()) {
-            file.delete();
-        }
-        Utils.writeContents(file, blob.getFile());
+        Refs.delete(name);
     }
 
     private void printlog(String shar, String date, String message) {
@@ -239,104 +194,58 @@ public class Branch implements Serializable {
         System.out.println(message);
     }
 
-    public Branch getCurrentBranch(String branchName) {
-        File branch = join(BRANCHES_CWD, branchName);
-        if (branch.exists()) {
-            return readObject(branch, Branch.class);
-        }
-        throw new IllegalArgumentException("Branch does not exits");
-    }
-
     public void saveBranch() {
-        File newCommit = Utils.join(BRANCHES_CWD, this.name);
-        Utils.writeObject(newCommit, this);
+        Refs.write(name, latestCommit);
     }
 
     public void test() {
         System.out.println("\t-----------------------------------------------------------------");
         System.out.println("\tCurrent Stage for addition has :");
-        for (String thisname : currentBranch.stageAdd.keySet()) {
-            String value = currentBranch.stageAdd.get(thisname).getName();
-            System.out.println("\tBlob : " + thisname + " Name : " + value);
+        for (String thisname : Stage.added().keySet()) {
+            String value = Stage.added().get(thisname);
+            System.out.println("\tBlob : " + value + " Name : " + thisname);
         }
         System.out.println("\t-----------------------------------------------------------------\n");
         System.out.println("\n");
         System.out.println("\t-----------------------------------------------------------------");
         System.out.println("\tCurrent Stage for remove has :");
-        for (String thisname : currentBranch.stageRemove.keySet()) {
-            String value = currentBranch.stageRemove.get(thisname).getName();
-            System.out.println("\tBlob : " + thisname + " Name : " + value);
-        }
-        System.out.println("\t-----------------------------------------------------------------\n");
-        System.out.println("\n");
-        System.out.println("\t-----------------------------------------------------------------");
-        System.out.println("\tAll the Blobs in memory are :");
-        int counter = 1;
-        for (String id : currentBranch.allBlobs.keySet()) {
-            String thisname = currentBranch.allBlobs.get(id);
-            System.out.println("\tBlob " + counter + " : " + id + " also named " + thisname);
-            counter++;
-        }
-        System.out.println("\t-----------------------------------------------------------------\n");
-        System.out.println("\n");
-        System.out.println("\t-----------------------------------------------------------------");
-        System.out.println("\tCurrent Commits are :");
-        for (String thisname : currentBranch.commits.keySet()) {
-            Commit value = currentBranch.commits.get(thisname);
-            System.out.println();
-            value.info();
+        for (String thisname : Stage.removed().keySet()) {
+            String value = Stage.removed().get(thisname);
+            System.out.println("\tBlob : " + value + " Name : " + thisname);
         }
         System.out.println("\t-----------------------------------------------------------------\n");
         System.out.println("\n");
         System.out.println("\t-----------------------------------------------------------------");
         System.out.println("\tLatest Commit was:");
-        System.out.println("\t" + currentBranch.latestCommit.getMessage() + " with ID : "
-                + currentBranch.latestCommit.getID());
+        System.out.println("\t" + getLatestCommit().getMessage() + " with ID : "
+                + latestCommit);
         System.out.println("\t-----------------------------------------------------------------\n");
     }
 
     public void reset(String id) {
-        for (File file : Repository.CWD.listFiles()) {
-            if (file.getName().equals(".gitlet")
-                    || file.getName().equals("gitlet")) {
-                continue;
-            }
-            Blob blob = new Blob(file.getName());
-            if (!currentBranch.tracked(blob.getID())
-                    && (!currentBranch.stageAdd.containsKey(blob.getID())
-                    || !currentBranch.stageRemove.containsKey(blob.getID()))) {
-                System.out.println("There is an untracked file in the way; "
+        TreeMap<String, String> present = WorkingTree.ids();
+        for (String file : present.keySet()) {
+            String blob = present.get(file);
+            if (!tracked(file, blob)
+                    && (!blob.equals(Stage.added().get(file))
+                    || !Stage.removed().containsKey(file))) {
+                throw Utils.error("There is an untracked file in the way; "
                         + "delete it or add it first.");
-                System.exit(0);
-                return;
             }
         }
-        for (String oldid : currentBranch.commits.keySet()) {
-            if (oldid.equals(id)) {
-                Commit commit = currentBranch.commits.get(oldid);
-                currentBranch.latestCommit = commit;
-                setFiles(commit);
-                return;
-
-            }
-        }
-        System.out.println("No commit with that id exists.");
-        System.exit(0);
-    }
-
-    private void clear() {
-        for (File file : Repository.CWD.listFiles()) {
-            if (file.getName().equals(".gitlet")
-                    || file.getName().equals("gitlet")) {
-                continue;
-            } else {
-                file.delete();
-            }
+        String fullID = CommitGraph.resolve(id);
+        if (fullID == null) {
+            throw Utils.error("No commit with that id exists.");
         }
+        Commit from = getLatestCommit();
+        latestCommit = fullID;
+        setFiles(from);
+        Stage.clear();
+        saveBranch();
     }
 
-    public boolean tracked(String id) {
-        return currentBranch.latestCommit.hasBlob(id);
+    public boolean tracked(String name, String id) {
+        return getLatestCommit().hasBlob(name, id);
     }
 
     public String getName() {
@@ -344,39 +253,29 @@ public class Branch implements Serializable {
     }
 
     public Commit getLatestCommit() {
-        return currentBranch.latestCommit;
+        return Repository.getCommit(latestCommit);
     }
 
     public boolean hasStuff() {
-        return currentBranch.stageAdd.size() != 0 || currentBranch.stageRemove.size() != 0;
-    }
-
-    public boolean hasCommit(String id) {
-        for (String commit : commits.keySet()) {
-            if (commit.equals(id)) {
-                return true;
-            }
-        }
-        return false;
+        return !Stage.isEmpty();
     }
 
-    public void setAsMerge(String other) {
-        currentBranch.oldBranch = other;
-        currentBranch.merged = true;
+    /** Moves this branch forward to the head of OTHER, which descends
+     *  from it, and checks that out. */
+    public void fastForward(Branch other) {
+        Commit from = getLatestCommit();
+        latestCommit = other.latestCommit;
+        setFiles(from);
+        saveBranch();
     }
 
     public void mergeCommit(String other, String oldID) {
-        String message = "Merged " + other + " into " + currentBranch.name;
-        Commit newCommit = new Commit(message, currentBranch.latestCommit);
-        newCommit.addBlobs(currentBranch.stageAdd, currentBranch.stageRemove);
-        currentBranch.merged = true;
-        currentBranch.oldBranch = oldID;
-        currentBranch.stageAdd.clear();
-        currentBranch.stageRemove.clear();
-        currentBranch.remved.clear();
-        currentBranch.commits.put(newCommit.getID(), newCommit);
+        String message = "Merged " + other + " into " + name;
+        Commit newCommit = new Commit(message, getLatestCommit(), oldID);
+        newCommit.addBlobs(Stage.added(), Stage.removed());
+        Stage.clear();
         newCommit.saveCommit();
-        currentBranch.latestCommit = newCommit;
-        currentBranch.saveBranch();
+        latestCommit = newCommit.getID();
+        saveBranch();
     }
 }
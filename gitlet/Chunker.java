@@ -0,0 +1,112 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Content-defined chunking of large files, as in FastCDC (Xia et al.,
+ *  2016).  A Gear rolling hash is run over the bytes, and a chunk ends
+ *  where the hash's top bits are all zero, so cut points depend only on
+ *  the bytes just before them.  An edit then moves at most the cut points
+ *  near it, and every other chunk of a new version comes out identical to
+ *  one of the old version and is stored only once.
+ *
+ *  Chunks are MIN_SIZE to MAX_SIZE bytes long.  Below AVERAGE_SIZE a cut
+ *  needs more zero bits (MASK_SMALL) than above it (MASK_LARGE), which
+ *  keeps most chunks near the average size.
+ *
+ *  A file stored in chunks is recorded in the ObjectStore as a chunk list,
+ *  a Codec record
+ *
+ *      "GCHK" version count:varint (id:20 bytes length:varint)*count crc
+ *
+ *  naming each chunk in order.
+ */
+class Chunker {
+
+    /** Size bounds of a chunk, in bytes. */
+    static final int MIN_SIZE = 16 << 10;
+    static final int AVERAGE_SIZE = 64 << 10;
+    static final int MAX_SIZE = 256 << 10;
+
+    /** Cut masks below and above AVERAGE_SIZE: the top 18 and 14 bits. */
+    private static final long MASK_SMALL = -1L << (64 - 18);
+    private static final long MASK_LARGE = -1L << (64 - 14);
+
+    /** Header and current version of the encoding of chunk lists. */
+    private static final byte[] MAGIC = "GCHK".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    /** The Gear table: a fixed random value for each byte. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x2545f4914f6cdd1dL;
+        for (int i = 0; i < GEAR.length; i += 1) {
+            seed += 0x9e3779b97f4a7c15L;
+            long x = seed;
+            x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+            x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+            GEAR[i] = x ^ (x >>> 31);
+        }
+    }
+
+    /** One chunk of a file. */
+    static class Chunk {
+        /** Object id of the chunk's bytes. */
+        final String id;
+        /** Number of bytes. */
+        final long length;
+
+        Chunk(String id, long length) {
+            this.id = id;
+            this.length = length;
+        }
+    }
+
+    /** Returns the length of the chunk that starts at DATA[START], where
+     *  DATA[START..END) holds the rest of the file or at least MAX_SIZE
+     *  bytes of it. */
+    static int cut(byte[] data, int start, int end) {
+        int n = Math.min(end - start, MAX_SIZE);
+        if (n <= MIN_SIZE) {
+            return n;
+        }
+        int normal = Math.min(n, AVERAGE_SIZE);
+        long hash = 0;
+        int i = MIN_SIZE;
+        for (; i < normal; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_SMALL) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < n; i += 1) {
+            hash = (hash << 1) + GEAR[data[start + i] & 0xff];
+            if ((hash & MASK_LARGE) == 0) {
+                return i + 1;
+            }
+        }
+        return n;
+    }
+
+    /** Returns CHUNKS as a chunk list record. */
+    static byte[] encode(List<Chunk> chunks) {
+        Codec.Encoder out = new Codec.Encoder(MAGIC, VERSION).writeVarint(chunks.size());
+        for (Chunk chunk : chunks) {
+            out.writeId(chunk.id).writeVarint(chunk.length);
+        }
+        return out.finish();
+    }
+
+    /** Returns the chunks listed in the record DATA. */
+    static List<Chunk> decode(byte[] data) {
+        Codec.Decoder in = new Codec.Decoder(data, MAGIC, VERSION);
+        long count = in.readVarint();
+        List<Chunk> chunks = new ArrayList<>();
+        for (long i = 0; i < count; i += 1) {
+            chunks.add(new Chunk(in.readId(), in.readVarint()));
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,253 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/** The binary encoding of gitlet's metadata records (commits, trees and
+ *  the staging area), used in place of Java serialization.  A record is
+ *
+ *      magic:4 bytes  version:byte  fields  CRC32 of everything before:int
+ *
+ *  where strings are a varint byte length followed by UTF-8, ids are their
+ *  20 raw bytes, and a file map is a varint count followed by entries in
+ *  path order, each path stored as the length it shares with the previous
+ *  path and the rest.  Readers check the magic, the version and the
+ *  checksum before decoding anything, so a torn or foreign file is
+ *  reported rather than misread.
+ *
+ *  Files written by earlier versions of gitlet hold Java-serialized
+ *  objects instead; isLegacy recognizes them and readLegacy decodes them.
+ */
+class Codec {
+
+    private static final int ID_BYTES = 20;
+
+    /** Returns true iff DATA is a Java-serialized object rather than a
+     *  Codec record. */
+    static boolean isLegacy(byte[] data) {
+        return data.length >= 2 && data[0] == (byte) 0xac && data[1] == (byte) 0xed;
+    }
+
+    /** Returns the Java-serialized object in DATA, cast to EXPECTEDCLASS. */
+    static <T extends Serializable> T readLegacy(byte[] data, Class<T> expectedClass) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return expectedClass.cast(in.readObject());
+        } catch (IOException | ClassCastException | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Builds one record. */
+    static class Encoder {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        /** An encoder for a record with the given MAGIC and VERSION. */
+        Encoder(byte[] magic, int version) {
+            try {
+                out.write(magic);
+                out.writeByte(version);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+        }
+
+        Encoder writeLong(long value) {
+            try {
+                out.writeLong(value);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return this;
+        }
+
+        Encoder writeVarint(long value) {
+            try {
+                Pack.writeVarint(out, value);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return this;
+        }
+
+        Encoder writeString(String value) {
+            return writeBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /** Writes the id ID, which must not be null. */
+        Encoder writeId(String id) {
+            try {
+                out.write(Utils.fromHex(id));
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return this;
+        }
+
+        /** Writes ID, which may be null. */
+        Encoder writeOptionalId(String id) {
+            try {
+                out.writeBoolean(id != null);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return id == null ? this : writeId(id);
+        }
+
+        /** Writes FILES, a map from path to id. */
+        Encoder writeFiles(TreeMap<String, String> files) {
+            writeVarint(files.size());
+            byte[] previous = new byte[0];
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                byte[] path = file.getKey().getBytes(StandardCharsets.UTF_8);
+                int shared = Arrays.mismatch(previous, path);
+                if (shared < 0) {
+                    shared = path.length;
+                }
+                writeVarint(shared);
+                writeBytes(Arrays.copyOfRange(path, shared, path.length));
+                writeId(file.getValue());
+                previous = path;
+            }
+            return this;
+        }
+
+        /** Returns the finished record, checksum included. */
+        byte[] finish() {
+            CRC32 crc = new CRC32();
+            crc.update(bytes.toByteArray());
+            try {
+                out.writeInt((int) crc.getValue());
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return bytes.toByteArray();
+        }
+
+        private Encoder writeBytes(byte[] value) {
+            writeVarint(value.length);
+            try {
+                out.write(value);
+            } catch (IOException excp) {
+                throw new AssertionError(excp);
+            }
+            return this;
+        }
+    }
+
+    /** Reads the fields of one record, in the order they were written.
+     *  Every read throws IllegalArgumentException if the record is
+     *  shorter than its fields claim. */
+    static class Decoder {
+        private final ByteBuffer in;
+        private final int version;
+
+        /** A decoder for DATA, which must be a record with the given MAGIC
+         *  and a version no newer than MAXVERSION. */
+        Decoder(byte[] data, byte[] magic, int maxVersion) {
+            int body = data.length - 4;
+            if (body < magic.length + 1
+                || !Arrays.equals(data, 0, magic.length, magic, 0, magic.length)) {
+                throw new IllegalArgumentException("not a gitlet record");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, body);
+            in = ByteBuffer.wrap(data, 0, body);
+            if ((int) crc.getValue() != ByteBuffer.wrap(data, body, 4).getInt()) {
+                throw new IllegalArgumentException("checksum mismatch");
+            }
+            in.position(magic.length);
+            version = in.get();
+            if (version > maxVersion) {
+                throw new IllegalArgumentException(
+                    "written by a newer gitlet (version " + version + ")");
+            }
+        }
+
+        /** Returns the format version of this record. */
+        int version() {
+            return version;
+        }
+
+        long readLong() {
+            try {
+                return in.getLong();
+            } catch (BufferUnderflowException excp) {
+                throw truncated();
+            }
+        }
+
+        long readVarint() {
+            try {
+                return Pack.readVarint(in);
+            } catch (BufferUnderflowException excp) {
+                throw truncated();
+            }
+        }
+
+        String readString() {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        String readId() {
+            byte[] id = new byte[ID_BYTES];
+            try {
+                in.get(id);
+            } catch (BufferUnderflowException excp) {
+                throw truncated();
+            }
+            return Utils.toHex(id);
+        }
+
+        String readOptionalId() {
+            try {
+                return in.get() == 0 ? null : readId();
+            } catch (BufferUnderflowException excp) {
+                throw truncated();
+            }
+        }
+
+        TreeMap<String, String> readFiles() {
+            TreeMap<String, String> files = new TreeMap<>();
+            long count = readVarint();
+            byte[] previous = new byte[0];
+            for (long i = 0; i < count; i += 1) {
+                int shared = (int) readVarint();
+                byte[] rest = readBytes();
+                if (shared > previous.length) {
+                    throw truncated();
+                }
+                byte[] path = Arrays.copyOf(previous, shared + rest.length);
+                System.arraycopy(rest, 0, path, shared, rest.length);
+                files.put(new String(path, StandardCharsets.UTF_8), readId());
+                previous = path;
+            }
+            return files;
+        }
+
+        private byte[] readBytes() {
+            int length = (int) readVarint();
+            if (length < 0 || length > in.remaining()) {
+                throw truncated();
+            }
+            byte[] value = new byte[length];
+            in.get(value);
+            return value;
+        }
+
+        private static IllegalArgumentException truncated() {
+            return new IllegalArgumentException("truncated record");
+        }
+    }
+}
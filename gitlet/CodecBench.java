@@ -0,0 +1,60 @@
+package gitlet;
+
+import java.util.TreeMap;
+import java.util.function.Function;
+
+/** Compares decoding a list of files from Java serialization, as commits
+ *  once stored them, with decoding it from the Codec format, as a Tree
+ *  stores one directory.
+ *
+ *  Usage: java gitlet.CodecBench [FILES [ROUNDS]]
+ *
+ *  builds a list of FILES files (default 2000) spread over nested
+ *  directories, then reports the size of each encoding and the average
+ *  time to decode it over ROUNDS rounds (default 2000), after a warm-up. */
+public class CodecBench {
+
+    public static void main(String... args) {
+        int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        TreeMap<String, String> blobs = new TreeMap<>();
+        for (int i = 0; i < files; i += 1) {
+            String path = "src/module" + (i % 17) + "/pkg" + (i % 5) + "/File" + i + ".java";
+            blobs.put(path, Utils.sha1(path));
+        }
+
+        byte[] legacy = Utils.serialize(blobs);
+        byte[] current = Tree.encode(blobs);
+        Function<byte[], TreeMap<?, ?>> fromLegacy = data -> Codec.readLegacy(data, TreeMap.class);
+        Function<byte[], TreeMap<?, ?>> fromCodec = Tree::decode;
+        if (!fromCodec.apply(current).equals(blobs)
+            || !fromLegacy.apply(legacy).equals(blobs)) {
+            throw new AssertionError("round trip failed");
+        }
+
+        System.out.printf("%d files: serialized %d bytes, codec %d bytes%n",
+                          files, legacy.length, current.length);
+        System.out.printf("decode serialized: %8.1f us%n", time(legacy, fromLegacy, rounds));
+        System.out.printf("decode codec:      %8.1f us%n", time(current, fromCodec, rounds));
+    }
+
+    /** Returns the mean time in microseconds to decode DATA with DECODER,
+     *  over ROUNDS rounds following as many warm-up rounds. */
+    private static double time(byte[] data, Function<byte[], TreeMap<?, ?>> decoder,
+                               int rounds) {
+        long sink = 0;
+        for (int i = 0; i < rounds; i += 1) {
+            sink += decoder.apply(data).size();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i += 1) {
+            sink += decoder.apply(data).size();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (sink == 0) {
+            System.out.println();
+        }
+        return elapsed / 1000.0 / rounds;
+    }
+}
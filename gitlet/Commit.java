@@ -2,10 +2,15 @@ package gitlet;
 
 import java.io.File;
 import java.io.Serializable;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.TreeMap;
-import java.util.HashSet;
 
 /**
  * Represents a gitlet commit object.
@@ -14,6 +19,10 @@ import java.util.HashSet;
  * @author Sergio W. Peterson
  */
 public class Commit implements Serializable {
+    /** Kept from the last Java-serialized version, so commits written
+     *  that way can still be read (see Codec.isLegacy). */
+    private static final long serialVersionUID = 8313149611795897900L;
+
     /**
      *
      * List all instance variables of the Commit class here with a useful
@@ -28,42 +37,180 @@ public class Commit implements Serializable {
 
     private String message;
     private String time;
+    /** Commit time in milliseconds since the epoch. */
+    private long timestamp;
     private String id;
-    private Commit parent;
-    private TreeMap<String, Blob> blobs = new TreeMap<>();
-    private static final Date STARTDATE = new Date(0);
-    SimpleDateFormat format = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy Z");
+    /** Id of the first parent, or null for the initial commit. */
+    private String parent;
+    /** Id of the merged-in branch head, or null unless this is a merge. */
+    private String secondParent;
+    /** Id of the root Tree of the tracked files, or null if there are none. */
+    private String tree;
+    /** For a commit read from an older format, which listed every file:
+     *  each tracked file name mapped to the id of its blob in the
+     *  ObjectStore.  Null once the commit has a tree. */
+    private TreeMap<String, String> blobs;
+    /** Every tracked file name mapped to its blob id, once needed. */
+    private transient TreeMap<String, String> files;
+    private static final DateTimeFormatter FORMAT =
+        DateTimeFormatter.ofPattern("EEE MMM d HH:mm:ss yyyy Z").withZone(ZoneId.systemDefault());
+
+    /** Header and current version of the encoding of commit files. */
+    private static final byte[] MAGIC = "GCMT".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
 
 
     //only used when initaing gitlet
     public Commit() {
         this.message = "initial commit";
-        this.time = format.format(STARTDATE);
+        this.time = FORMAT.format(Instant.EPOCH);
         this.parent = null;
         this.id = Utils.sha1(this.time, this.message);
     }
 
     public Commit(String message, Commit parent) {
         this.message = message;
-        Date current = new Date();
-        this.time = format.format(current);
-        this.blobs = new TreeMap<>(parent.getBlobs());
+        Instant current = Instant.now();
+        this.time = FORMAT.format(current);
+        this.timestamp = current.toEpochMilli();
+        this.tree = parent.getTree();
+        this.parent = parent.getID();
+    }
+
+    public Commit(String message, Commit parent, String secondParent) {
+        this(message, parent);
+        this.secondParent = secondParent;
+    }
+
+    /** A commit as recorded by an older format, named ID, with FILES
+     *  mapping each tracked file name to its blob id.  TIMESTAMP is 0 if
+     *  that format did not record it, in which case it is taken from TIME. */
+    Commit(String id, String parent, String secondParent, long timestamp, String time,
+           String message, TreeMap<String, String> files) {
+        this.id = id;
         this.parent = parent;
-        this.id = Utils.sha1(this.time.toString(), this.message);
+        this.secondParent = secondParent;
+        this.time = time;
+        this.message = message;
+        this.blobs = files;
+        if (timestamp == 0 && parent != null) {
+            try {
+                timestamp = ZonedDateTime.parse(time, FORMAT).toInstant().toEpochMilli();
+            } catch (DateTimeParseException excp) {
+                // Leave commits whose date cannot be read at the epoch.
+            }
+        }
+        this.timestamp = timestamp;
+    }
+
+    /** Decodes a commit from IN. */
+    private Commit(Codec.Decoder in) {
+        this.id = in.readId();
+        this.parent = in.readOptionalId();
+        this.secondParent = in.readOptionalId();
+        this.timestamp = in.readLong();
+        this.time = in.readString();
+        this.message = in.readString();
+        if (in.version() < 2) {
+            this.blobs = in.readFiles();
+        } else {
+            this.tree = in.readOptionalId();
+        }
+    }
+
+    /** Returns the commit stored in FILE, in either the current or the
+     *  Java-serialized format. */
+    static Commit read(File file) {
+        return decode(Utils.readCompressed(file));
+    }
+
+    /** Returns the commit encoded in DATA, in either format. */
+    static Commit decode(byte[] data) {
+        if (Codec.isLegacy(data)) {
+            return Codec.readLegacy(data, Commit.class);
+        }
+        return new Commit(new Codec.Decoder(data, MAGIC, VERSION));
+    }
+
+    /** Rewrites every commit stored in an older format, which listed all
+     *  of its files, in the current format, storing its trees.  Returns
+     *  how many there were. */
+    static int upgradeAll() {
+        List<String> files = Utils.plainFilenamesIn(COMMIT_CWD);
+        int upgraded = 0;
+        for (String name : files) {
+            File file = Utils.join(COMMIT_CWD, name);
+            Commit commit = decode(Utils.readCompressed(file));
+            if (commit.blobs != null) {
+                Utils.writeCompressed(file, commit.encode());
+                upgraded += 1;
+            }
+        }
+        return upgraded;
+    }
+
+    /** Returns this commit in the format read by read(). */
+    byte[] encode() {
+        return new Codec.Encoder(MAGIC, VERSION)
+            .writeId(id)
+            .writeOptionalId(parent)
+            .writeOptionalId(secondParent)
+            .writeLong(timestamp)
+            .writeString(time)
+            .writeString(message)
+            .writeOptionalId(getTree())
+            .finish();
+    }
+
+    /** Names this commit by everything it records, so that commits made
+     *  within the same second with the same message stay distinct. */
+    private String computeID() {
+        List<Object> vals = new ArrayList<>();
+        vals.add(this.time);
+        vals.add(this.message);
+        vals.add(Long.toString(this.timestamp));
+        vals.add(this.parent);
+        vals.add(this.secondParent == null ? "" : this.secondParent);
+        vals.add(this.tree == null ? "" : this.tree);
+        return Utils.sha1(vals);
     }
 
+    /** Stores this commit, naming it first if it is new: its id covers
+     *  the tree, so it is only computed once the tree is final. */
     public void saveCommit() {
+        if (this.id == null) {
+            this.id = computeID();
+        }
         File newCommit = Utils.join(COMMIT_CWD, this.id);
-        Utils.writeObject(newCommit, this);
-
+        Utils.writeCompressed(newCommit, encode());
+        Repository.cacheCommit(this);
+        CommitGraph.add(this);
+        MessageIndex.add(this.id, this.message);
+        Journal.add(this);
     }
 
-    public void addBlobs(TreeMap<String, Blob> blob, TreeMap<String, Blob> withhold) {
+    public void addBlobs(TreeMap<String, String> blob, TreeMap<String, String> withhold) {
         refactor(blob, withhold);
     }
 
-    public TreeMap<String, Blob> getBlobs() {
-        return blobs;
+    /** Returns every tracked file name mapped to its blob id.  The map
+     *  must not be modified. */
+    public TreeMap<String, String> getBlobs() {
+        if (files == null) {
+            files = blobs != null ? blobs : Tree.flatten(tree);
+        }
+        return files;
+    }
+
+    /** Returns the id of the root tree of this commit, or null if it
+     *  tracks no files, storing the trees of a commit read from an older
+     *  format first. */
+    String getTree() {
+        if (blobs != null) {
+            tree = Tree.build(blobs);
+            blobs = null;
+        }
+        return tree;
     }
 
     public String getID() {
@@ -78,54 +225,68 @@ public class Commit implements Serializable {
         return time;
     }
 
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /** Returns the first parent, loading it on demand, or null for the
+     *  initial commit. */
     public Commit getParent() {
+        if (parent == null) {
+            return null;
+        }
+        return Repository.getCommit(parent);
+    }
+
+    public String getParentID() {
         return parent;
     }
 
+    public String getSecondParentID() {
+        return secondParent;
+    }
+
     public void info() {
         System.out.println("\t  " + this.message);
         System.out.println("\t   ID : " + this.id);
         System.out.println("\t   Time : " + this.time);
         System.out.println("\t   Blobs for this Commit : ");
-        for (String blob : blobs.keySet()) {
-            Blob file = blobs.get(blob);
-            System.out.println("\t   - Name : " + file.getName() + " ID: " + file.getID());
+        for (String name : getBlobs().keySet()) {
+            System.out.println("\t   - Name : " + name + " ID: " + getBlobs().get(name));
         }
         System.out.println();
     }
 
-    public boolean hasBlob(String thisid) {
-        return blobs.containsKey(thisid);
+    public boolean hasBlob(String name, String thisid) {
+        return thisid.equals(getBlobID(name));
     }
 
-    private void refactor(TreeMap<String, Blob> newBlobs, TreeMap<String, Blob> withhold) {
-        TreeMap<String, String> holderofBlobs = new TreeMap<>();
-        HashSet<String> removeBlobs = new HashSet<>();
-        for (String oldBlob : this.blobs.keySet()) {
-            Blob thisblob = this.blobs.get(oldBlob);
-            if (withhold.containsKey(oldBlob)) {
-                removeBlobs.add(oldBlob);
-            }
-            holderofBlobs.put(thisblob.getName(), thisblob.getID());
+    /** Returns the blob id of file NAME, or null if it is not tracked.
+     *  Reads only the trees along its path. */
+    public String getBlobID(String name) {
+        if (files != null || blobs != null) {
+            return getBlobs().get(name);
         }
+        return Tree.lookup(tree, name);
+    }
 
-        for (String remove : removeBlobs) {
-            this.blobs.remove(remove);
-        }
-
-
-        for (String blob : newBlobs.keySet()) {
-            if (holderofBlobs.containsKey(newBlobs.get(blob).getName())) {
-                String thisid = holderofBlobs.get(newBlobs.get(blob).getName());
-                this.blobs.remove(thisid);
-            }
-            this.blobs.put(blob, newBlobs.get(blob));
+    /** Applies the staged changes to the tree, rewriting only the trees
+     *  on the paths of NEWBLOBS and WITHHOLD. */
+    private void refactor(TreeMap<String, String> newBlobs, TreeMap<String, String> withhold) {
+        TreeMap<String, String> changes = new TreeMap<>();
+        for (String name : withhold.keySet()) {
+            changes.put(name, null);
         }
+        changes.putAll(newBlobs);
+        this.tree = Tree.update(getTree(), changes);
+        this.files = null;
     }
 
 
-    public void resetTo(TreeMap<String, Blob> newblob) {
-        this.blobs = newblob;
+    public void resetTo(TreeMap<String, String> newblob) {
+        this.blobs = null;
+        this.tree = Tree.build(newblob);
+        this.files = null;
     }
 
 }
@@ -0,0 +1,646 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/** The commit-graph, which lets commands find and walk commits without
+ *  deserializing Commit objects.  It is a chain of files in one format:
+ *  .gitlet/commit-graph, holding every commit as of the last gc, and then
+ *  layers in .gitlet/commit-graphs holding the commits made since.  The
+ *  file commit-graph-chain there gives the checksum of the commit-graph
+ *  the layers extend, then their names, bottom to top, one per line; a
+ *  chain left behind when gc replaced the commit-graph is ignored.
+ *
+ *      "CGPH" version:int count:int
+ *      fanout: 256 * int       (number of ids whose first byte is <= i)
+ *      ids: count * 20 bytes   (sorted)
+ *      data: count * (parent:int secondParent:int generation:int
+ *                     timestamp:long metaOffset:int)
+ *      meta: per commit (timeLength:int time:UTF-8 messageLength:int
+ *                        message:UTF-8)
+ *      CRC32 of everything above:int
+ *
+ *  Commits are addressed by position: those of each file follow those of
+ *  the files below it, in id order.  Parents are positions in the whole
+ *  chain (-1 for none), so a file never changes when layers are added
+ *  above it, and the generation of a commit is one more than the largest
+ *  generation of its parents.  Files are read through memory maps and
+ *  their checksums verified when mapped.
+ *
+ *  Commits made during the current command are kept in memory at
+ *  positions after the on-disk ones until save() writes them as a new
+ *  layer.  Layers that are not more than twice its size are merged into
+ *  the new one, so there are only logarithmically many and a command
+ *  rewrites about as many commits as it adds; gc merges everything into
+ *  .gitlet/commit-graph.  Version 1 files, which ended in a SHA-1 and
+ *  had no layers, are still read, and rewritten by the next save().
+ */
+class CommitGraph {
+
+    /** Location of the base of the commit-graph. */
+    static final File GRAPH_FILE = Utils.join(Repository.GITLET_DIR, "commit-graph");
+    /** Directory holding the layers above GRAPH_FILE. */
+    static final File LAYERS_CWD = Utils.join(Repository.GITLET_DIR, "commit-graphs");
+    /** Names of the layers in LAYERS_CWD, one per line, bottom first. */
+    static final File CHAIN_FILE = Utils.join(LAYERS_CWD, "commit-graph-chain");
+
+    private static final byte[] MAGIC = "CGPH".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int ID_BYTES = 20;
+    private static final int HEADER = 12;
+    private static final int FANOUT = 256 * 4;
+    private static final int RECORD = 24;
+
+    /** A commit that is not in a file yet. */
+    private static final class Pending {
+        private final String id;
+        private final int parent;
+        private final int secondParent;
+        private final int generation;
+        private final long timestamp;
+        private final String time;
+        private final String message;
+
+        Pending(String id, int parent, int secondParent, int generation,
+                long timestamp, String time, String message) {
+            this.id = id;
+            this.parent = parent;
+            this.secondParent = secondParent;
+            this.generation = generation;
+            this.timestamp = timestamp;
+            this.time = time;
+            this.message = message;
+        }
+    }
+
+    /** One mapped file of the chain. */
+    private static final class Layer {
+        /** Its name in LAYERS_CWD, or null for GRAPH_FILE. */
+        private final String name;
+        private final MappedByteBuffer map;
+        /** Position of its first commit. */
+        private final int base;
+        /** Number of commits in it. */
+        private final int count;
+
+        Layer(String name, MappedByteBuffer map, int base) {
+            this.name = name;
+            this.map = map;
+            this.base = base;
+            this.count = map.getInt(8);
+        }
+
+        /** Returns the checksum at the end of the file. */
+        int checksum() {
+            return map.getInt(map.limit() - 4);
+        }
+
+        /** Returns the first index whose id is not less than KEY. */
+        int lowerBound(byte[] key) {
+            if (count == 0) {
+                return 0;
+            }
+            int first = key[0] & 0xff;
+            int lo = first == 0 ? 0 : map.getInt(HEADER + (first - 1) * 4);
+            int hi = map.getInt(HEADER + first * 4);
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compare(mid, key) < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /** Compares the id at index I with KEY, as unsigned bytes. */
+        int compare(int i, byte[] key) {
+            int offset = idOffset(i);
+            for (int k = 0; k < ID_BYTES; k += 1) {
+                int cmp = Integer.compare(map.get(offset + k) & 0xff, key[k] & 0xff);
+                if (cmp != 0) {
+                    return cmp;
+                }
+            }
+            return 0;
+        }
+
+        int idOffset(int i) {
+            return HEADER + FANOUT + i * ID_BYTES;
+        }
+
+        int dataOffset(int i) {
+            return HEADER + FANOUT + count * ID_BYTES + i * RECORD;
+        }
+
+        /** Returns field FIELD (0 for the time, 1 for the message) of the
+         *  metadata of index I. */
+        String metaString(int i, int field) {
+            int offset = map.getInt(dataOffset(i) + 20);
+            for (int k = 0; k < field; k += 1) {
+                offset += 4 + map.getInt(offset);
+            }
+            byte[] bytes = new byte[map.getInt(offset)];
+            map.get(offset + 4, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    /** The mapped files, bottom first. */
+    private static List<Layer> layers;
+    /** Number of commits in LAYERS. */
+    private static int count;
+    /** Commits added since LAYERS were written, in order of position. */
+    private static List<Pending> pending;
+    /** Positions of the PENDING commits, by id. */
+    private static HashMap<String, Integer> pendingPositions;
+    /** True if save() must rewrite the whole graph into GRAPH_FILE. */
+    private static boolean rewrite;
+
+    /** Returns the number of commits in the graph. */
+    static int size() {
+        load();
+        return count + pending.size();
+    }
+
+    /** Adds COMMIT, whose parents must already be in the graph. */
+    static void add(Commit commit) {
+        load();
+        if (position(commit.getID()) != -1) {
+            return;
+        }
+        int parent = commit.getParentID() == null ? -1 : position(commit.getParentID());
+        int second = commit.getSecondParentID() == null
+            ? -1 : position(commit.getSecondParentID());
+        int generation = 1 + Math.max(parent == -1 ? 0 : generation(parent),
+                                      second == -1 ? 0 : generation(second));
+        pendingPositions.put(commit.getID(), count + pending.size());
+        pending.add(new Pending(commit.getID(), parent, second, generation,
+                                commit.getTimestamp(), commit.getTime(),
+                                commit.getMessage()));
+    }
+
+    /** Returns the position of the commit with full id ID, or -1. */
+    static int position(String id) {
+        load();
+        Integer added = pendingPositions.get(id);
+        if (added != null) {
+            return added;
+        }
+        if (id.length() != Utils.UID_LENGTH) {
+            return -1;
+        }
+        byte[] key = Utils.fromHex(id);
+        for (Layer layer : layers) {
+            int i = layer.lowerBound(key);
+            if (i < layer.count && layer.compare(i, key) == 0) {
+                return layer.base + i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the full id of the only commit whose id starts with PREFIX,
+     *  or null if there is no such commit or more than one. */
+    static String resolve(String prefix) {
+        load();
+        if (prefix.isEmpty() || prefix.length() > Utils.UID_LENGTH
+            || !prefix.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return null;
+        }
+        prefix = prefix.toLowerCase();
+        String found = null;
+        int matches = 0;
+        for (Pending commit : pending) {
+            if (commit.id.startsWith(prefix)) {
+                found = commit.id;
+                matches += 1;
+            }
+        }
+        String zeros = "0".repeat(Utils.UID_LENGTH - prefix.length());
+        String effs = "f".repeat(Utils.UID_LENGTH - prefix.length());
+        byte[] low = Utils.fromHex(prefix + zeros);
+        byte[] high = Utils.fromHex(prefix + effs);
+        for (Layer layer : layers) {
+            for (int i = layer.lowerBound(low);
+                 i < layer.count && layer.compare(i, high) <= 0 && matches <= 1; i += 1) {
+                found = id(layer.base + i);
+                matches += 1;
+            }
+        }
+        return matches == 1 ? found : null;
+    }
+
+    /** Returns the full id of the commit at POS. */
+    static String id(int pos) {
+        if (pos >= count) {
+            return pending.get(pos - count).id;
+        }
+        Layer layer = layer(pos);
+        byte[] id = new byte[ID_BYTES];
+        layer.map.get(layer.idOffset(pos - layer.base), id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the position of the first parent of the commit at POS, or -1. */
+    static int parent(int pos) {
+        if (pos >= count) {
+            return pending.get(pos - count).parent;
+        }
+        Layer layer = layer(pos);
+        return layer.map.getInt(layer.dataOffset(pos - layer.base));
+    }
+
+    /** Returns the position of the second parent of the commit at POS, or -1. */
+    static int secondParent(int pos) {
+        if (pos >= count) {
+            return pending.get(pos - count).secondParent;
+        }
+        Layer layer = layer(pos);
+        return layer.map.getInt(layer.dataOffset(pos - layer.base) + 4);
+    }
+
+    /** Returns the generation number of the commit at POS. */
+    static int generation(int pos) {
+        if (pos >= count) {
+            return pending.get(pos - count).generation;
+        }
+        Layer layer = layer(pos);
+        return layer.map.getInt(layer.dataOffset(pos - layer.base) + 8);
+    }
+
+    /** Returns the commit time of the commit at POS in milliseconds. */
+    static long timestamp(int pos) {
+        if (pos >= count) {
+            return pending.get(pos - count).timestamp;
+        }
+        Layer layer = layer(pos);
+        return layer.map.getLong(layer.dataOffset(pos - layer.base) + 12);
+    }
+
+    /** Returns the formatted date of the commit at POS. */
+    static String time(int pos) {
+        if (pos >= count) {
+            return pending.get(pos - count).time;
+        }
+        Layer layer = layer(pos);
+        return layer.metaString(pos - layer.base, 0);
+    }
+
+    /** Returns the message of the commit at POS. */
+    static String message(int pos) {
+        if (pos >= count) {
+            return pending.get(pos - count).message;
+        }
+        Layer layer = layer(pos);
+        return layer.metaString(pos - layer.base, 1);
+    }
+
+    /** Returns the position of the best common ancestor of the commits at
+     *  A and B, or -1 if they have none.
+     *
+     *  Both histories are walked at once from a priority queue ordered by
+     *  generation (then timestamp), newest first, painting each commit
+     *  with the side(s) it was reached from.  A commit reached from both
+     *  sides is a candidate and everything below it is marked stale; the
+     *  walk stops as soon as only stale commits are left, so only the
+     *  commits above the merge base (and a little beyond) are visited.
+     *  Of the candidates that are not themselves stale, the one with the
+     *  highest generation is returned.
+     *
+     *  Every parent comes after its children in the queue, so a commit is
+     *  painted completely before it is taken out and is queued only once.
+     *  How many queued commits are not stale is counted as they are
+     *  queued, painted stale and taken out, which tells when to stop
+     *  without looking through the queue. */
+    static int mergeBase(int a, int b) {
+        if (a == b) {
+            return a;
+        }
+        final int one = 1;
+        final int two = 2;
+        final int stale = 4;
+        final int result = 8;
+        final int queued = 16;
+        HashMap<Integer, Integer> flags = new HashMap<>();
+        PriorityQueue<Integer> queue = new PriorityQueue<>((x, y) -> {
+            int cmp = Integer.compare(generation(y), generation(x));
+            return cmp != 0 ? cmp : Long.compare(timestamp(y), timestamp(x));
+        });
+        flags.put(a, one | queued);
+        flags.put(b, two | queued);
+        queue.add(a);
+        queue.add(b);
+        int nonStale = 2;
+        List<Integer> found = new ArrayList<>();
+        while (nonStale > 0) {
+            int commit = queue.poll();
+            int flag = flags.get(commit);
+            if ((flag & stale) == 0) {
+                nonStale -= 1;
+            }
+            int paint = flag & (one | two | stale);
+            if ((paint & (one | two)) == (one | two)) {
+                if ((flag & result) == 0) {
+                    flags.put(commit, flag | result);
+                    found.add(commit);
+                }
+                paint |= stale;
+            }
+            for (int parent : new int[] {parent(commit), secondParent(commit)}) {
+                if (parent == -1) {
+                    continue;
+                }
+                int old = flags.getOrDefault(parent, 0);
+                if ((old & paint) == paint) {
+                    continue;
+                }
+                flags.put(parent, old | paint | queued);
+                if ((old & queued) == 0) {
+                    queue.add(parent);
+                    if ((paint & stale) == 0) {
+                        nonStale += 1;
+                    }
+                } else if ((old & stale) == 0 && (paint & stale) != 0) {
+                    nonStale -= 1;
+                }
+            }
+        }
+        int best = -1;
+        for (int commit : found) {
+            if ((flags.get(commit) & stale) == 0
+                && (best == -1 || generation(commit) > generation(best))) {
+                best = commit;
+            }
+        }
+        return best;
+    }
+
+    /** Writes the commits added during this command as a new layer, if
+     *  there are any, merging into it the layers above GRAPH_FILE that are
+     *  not more than twice its size. */
+    static void save() {
+        if (pending == null || pending.isEmpty() && !rewrite
+            || !Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        int top = rewrite ? 0 : layers.size();
+        int from = count;
+        int total = count + pending.size();
+        while (top > 1 && layers.get(top - 1).count <= 2 * (total - from)) {
+            top -= 1;
+            from = layers.get(top).base;
+        }
+        if (top == 0) {
+            File temp = Utils.join(Repository.GITLET_DIR, "commit-graph.lock");
+            write(temp, 0);
+            moveIntoPlace(temp, GRAPH_FILE);
+            File[] stale = LAYERS_CWD.listFiles();
+            for (File file : stale == null ? new File[0] : stale) {
+                file.delete();
+            }
+        } else {
+            List<String> chain = new ArrayList<>();
+            chain.add(Integer.toHexString(layers.get(0).checksum()));
+            for (Layer layer : layers.subList(1, top)) {
+                chain.add(layer.name);
+            }
+            LAYERS_CWD.mkdir();
+            File temp = Utils.join(LAYERS_CWD, "graph.lock");
+            String name = "graph-" + write(temp, from) + ".graph";
+            moveIntoPlace(temp, Utils.join(LAYERS_CWD, name));
+            chain.add(name);
+            temp = Utils.join(LAYERS_CWD, "commit-graph-chain.lock");
+            Utils.writeContents(temp, String.join("\n", chain) + "\n");
+            moveIntoPlace(temp, CHAIN_FILE);
+            for (Layer layer : layers.subList(top, layers.size())) {
+                Utils.join(LAYERS_CWD, layer.name).delete();
+            }
+        }
+        layers = null;
+        pending = null;
+    }
+
+    /** Merges every layer into GRAPH_FILE. */
+    static void compact() {
+        load();
+        if (layers.size() > 1) {
+            rewrite = true;
+        }
+        save();
+    }
+
+    /** Writes the commits at positions FROM and up to FILE, in id order,
+     *  and returns the SHA-1 of their ids. */
+    private static String write(File file, int from) {
+        int total = count + pending.size();
+        int size = total - from;
+        Integer[] order = new Integer[size];
+        String[] ids = new String[size];
+        for (int i = 0; i < size; i += 1) {
+            order[i] = i;
+            ids[i] = id(from + i);
+        }
+        Arrays.sort(order, (a, b) -> ids[a].compareTo(ids[b]));
+        int[] newPos = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            newPos[order[i]] = from + i;
+        }
+        MessageDigest md = Utils.sha1Digest();
+        CRC32 crc = new CRC32();
+        try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(file.toPath())), crc))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            int[] fanout = new int[256];
+            for (String id : ids) {
+                fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+            }
+            int sum = 0;
+            for (int i = 0; i < 256; i += 1) {
+                sum += fanout[i];
+                out.writeInt(sum);
+            }
+            for (Integer i : order) {
+                byte[] id = Utils.fromHex(ids[i]);
+                md.update(id);
+                out.write(id);
+            }
+            byte[][] metas = new byte[size][];
+            int metaOffset = HEADER + FANOUT + size * (ID_BYTES + RECORD);
+            for (Integer i : order) {
+                int pos = from + i;
+                int parent = parent(pos);
+                int second = secondParent(pos);
+                out.writeInt(parent < from ? parent : newPos[parent - from]);
+                out.writeInt(second < from ? second : newPos[second - from]);
+                out.writeInt(generation(pos));
+                out.writeLong(timestamp(pos));
+                out.writeInt(metaOffset);
+                metas[i] = meta(time(pos), message(pos));
+                metaOffset += metas[i].length;
+            }
+            for (Integer i : order) {
+                out.write(metas[i]);
+            }
+            out.writeInt((int) crc.getValue());
+        } catch (IOException excp) {
+            file.delete();
+            throw Utils.error("Cannot write commit-graph: %s", excp.getMessage());
+        }
+        return Utils.toHex(md.digest());
+    }
+
+    /** Renames TEMP to TARGET, replacing it atomically. */
+    private static void moveIntoPlace(File temp, File target) {
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            temp.delete();
+            throw Utils.error("Cannot write commit-graph: %s", excp.getMessage());
+        }
+    }
+
+    /** Maps the files of the commit-graph if that has not been done yet.
+     *  A repository without them, or with one that fails its checksum,
+     *  gets the graph rebuilt from the commits directory. */
+    private static void load() {
+        if (pending != null) {
+            return;
+        }
+        pending = new ArrayList<>();
+        pendingPositions = new HashMap<>();
+        layers = new ArrayList<>();
+        count = 0;
+        rewrite = false;
+        if (GRAPH_FILE.exists() && map(null, GRAPH_FILE)) {
+            String[] chain = CHAIN_FILE.exists()
+                ? Utils.readContentsAsString(CHAIN_FILE).split("\n") : new String[0];
+            boolean complete = true;
+            if (chain.length > 0
+                && chain[0].equals(Integer.toHexString(layers.get(0).checksum()))) {
+                for (int i = 1; i < chain.length && complete; i += 1) {
+                    complete = map(chain[i], Utils.join(LAYERS_CWD, chain[i]));
+                }
+            }
+            if (complete) {
+                return;
+            }
+        }
+        layers.clear();
+        count = 0;
+        rewrite = true;
+        if (Commit.COMMIT_CWD.isDirectory()) {
+            for (String id : Commit.COMMIT_CWD.list()) {
+                addWithAncestors(Repository.getCommit(id));
+            }
+        }
+    }
+
+    /** Maps FILE, the layer NAME (null for GRAPH_FILE), above those already
+     *  mapped.  Returns false if it is missing or fails its checksum; a
+     *  version 1 file is checked against its SHA-1 and marked for
+     *  rewriting. */
+    private static boolean map(String name, File file) {
+        MappedByteBuffer map;
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException excp) {
+            return false;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        if (map.limit() < HEADER + FANOUT) {
+            return false;
+        }
+        map.get(0, magic);
+        int version = map.getInt(4);
+        if (!Arrays.equals(magic, MAGIC) || version < 1 || version > VERSION) {
+            throw Utils.error("Unsupported commit-graph format.");
+        }
+        ByteBuffer contents = map.duplicate();
+        if (version == 1) {
+            MessageDigest md = Utils.sha1Digest();
+            md.update(contents.limit(contents.limit() - ID_BYTES));
+            byte[] sum = new byte[ID_BYTES];
+            map.get(map.limit() - ID_BYTES, sum);
+            if (!Arrays.equals(md.digest(), sum)) {
+                return false;
+            }
+            rewrite = true;
+        } else {
+            CRC32 crc = new CRC32();
+            crc.update(contents.limit(contents.limit() - 4));
+            if ((int) crc.getValue() != map.getInt(map.limit() - 4)) {
+                return false;
+            }
+        }
+        Layer layer = new Layer(name, map, count);
+        layers.add(layer);
+        count += layer.count;
+        return true;
+    }
+
+    /** Adds COMMIT after making sure all of its ancestors are present. */
+    private static void addWithAncestors(Commit commit) {
+        ArrayList<Commit> todo = new ArrayList<>();
+        todo.add(commit);
+        while (!todo.isEmpty()) {
+            Commit next = todo.get(todo.size() - 1);
+            if (position(next.getID()) != -1) {
+                todo.remove(todo.size() - 1);
+                continue;
+            }
+            boolean ready = true;
+            for (String parent : new String[] {next.getParentID(), next.getSecondParentID()}) {
+                if (parent != null && position(parent) == -1) {
+                    todo.add(Repository.getCommit(parent));
+                    ready = false;
+                }
+            }
+            if (ready) {
+                add(next);
+                todo.remove(todo.size() - 1);
+            }
+        }
+    }
+
+    /** Returns the mapped file holding the on-disk position POS. */
+    private static Layer layer(int pos) {
+        int i = layers.size() - 1;
+        while (layers.get(i).base > pos) {
+            i -= 1;
+        }
+        return layers.get(i);
+    }
+
+    /** Returns the metadata record for TIME and MESSAGE. */
+    private static byte[] meta(String time, String message) {
+        byte[] timeBytes = time.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        byte[] result = new byte[8 + timeBytes.length + messageBytes.length];
+        ByteBuffer buffer = ByteBuffer.wrap(result);
+        buffer.putInt(timeBytes.length).put(timeBytes);
+        buffer.putInt(messageBytes.length).put(messageBytes);
+        return result;
+    }
+}
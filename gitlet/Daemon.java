@@ -0,0 +1,182 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/** A long-running server for one repository.  "gitlet daemon" listens on
+ *  the Unix domain socket DAEMON_SOCKET; while it runs, Main forwards each
+ *  command to it instead of running it, so the commands start from warm
+ *  caches (commits, commit-graph, index, refs) in an already running JVM.
+ *
+ *  A request is the argument count (int) followed by each argument
+ *  (writeUTF); the response is the command's output, up to end of stream.
+ *  Connections are read on a pool of threads, but commands run one at a
+ *  time, as they would from a shell, since they share the repository's
+ *  in-memory state and System.out.
+ */
+class Daemon {
+
+    static final File DAEMON_SOCKET = Utils.join(Repository.GITLET_DIR, "daemon.sock");
+
+    /** Held while a command runs. */
+    private static final Object LOCK = new Object();
+
+    private static ServerSocketChannel server;
+
+    /** Sends ARGS to the daemon serving this repository and copies its
+     *  output to System.out.  Returns false, having done nothing, if no
+     *  daemon is listening. */
+    static boolean forward(String[] args) {
+        if (!DAEMON_SOCKET.exists()) {
+            return false;
+        }
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        } catch (IOException excp) {
+            return false;
+        }
+        try (channel) {
+            try {
+                channel.connect(UnixDomainSocketAddress.of(DAEMON_SOCKET.toPath()));
+            } catch (IOException excp) {
+                return false;
+            }
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(args.length);
+            for (String arg : args) {
+                out.writeUTF(arg);
+            }
+            out.flush();
+            channel.shutdownOutput();
+            Channels.newInputStream(channel).transferTo(System.out);
+            System.out.flush();
+            return true;
+        } catch (IOException excp) {
+            throw Utils.error("Lost connection to the daemon: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns true iff a daemon is serving this repository. */
+    static boolean isRunning() {
+        return forward(new String[] {"daemon", "ping"});
+    }
+
+    /** Serves commands for the repository in the current directory until
+     *  told to stop. */
+    static void serve() {
+        if (isRunning()) {
+            throw Utils.error("A daemon is already running.");
+        }
+        DAEMON_SOCKET.delete();
+        ExecutorService pool = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "gitlet-client");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(UnixDomainSocketAddress.of(DAEMON_SOCKET.toPath()));
+        } catch (IOException excp) {
+            throw Utils.error("Cannot listen on %s: %s", DAEMON_SOCKET, excp.getMessage());
+        }
+        Thread cleanup = new Thread(DAEMON_SOCKET::delete);
+        Runtime.getRuntime().addShutdownHook(cleanup);
+        System.out.println("Serving " + Repository.CWD + " on " + DAEMON_SOCKET);
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                pool.execute(() -> handle(client));
+            }
+        } catch (ClosedChannelException excp) {
+            /* Stopped by a "daemon stop" request. */
+        } catch (IOException excp) {
+            throw Utils.error("Daemon failed: %s", excp.getMessage());
+        } finally {
+            pool.shutdown();
+            DAEMON_SOCKET.delete();
+            Runtime.getRuntime().removeShutdownHook(cleanup);
+        }
+    }
+
+    /** Reads one request from CLIENT, runs it, and sends back its output. */
+    private static void handle(SocketChannel client) {
+        try (client) {
+            String[] args = readRequest(Channels.newInputStream(client));
+            PrintStream out = new PrintStream(
+                new BufferedOutputStream(Channels.newOutputStream(client), 1 << 16),
+                false, StandardCharsets.UTF_8);
+            if (args.length > 0 && args[0].equals("daemon")) {
+                control(args, out);
+            } else {
+                run(args, out);
+            }
+            out.flush();
+        } catch (IOException excp) {
+            /* The client went away; nothing is left to tell it. */
+        }
+    }
+
+    /** Runs the command ARGS with its output going to OUT, and writes out
+     *  its changes, or drops them if it fails. */
+    private static void run(String[] args, PrintStream out) {
+        synchronized (LOCK) {
+            PrintStream stdout = System.out;
+            System.setOut(out);
+            try {
+                Main.run(args);
+                Repository.flush();
+            } catch (GitletException excp) {
+                Repository.discard();
+                out.println(excp.getMessage());
+            } catch (RuntimeException excp) {
+                Repository.discard();
+                out.println("Internal error: " + excp);
+            } finally {
+                out.flush();
+                System.setOut(stdout);
+            }
+        }
+    }
+
+    /** Handles the daemon's own requests ("daemon stop", "daemon ping"). */
+    private static void control(String[] args, PrintStream out) throws IOException {
+        if (args.length == 2 && args[1].equals("stop")) {
+            out.println("Daemon stopped.");
+            out.flush();
+            synchronized (LOCK) {
+                server.close();
+            }
+        } else if (args.length == 1) {
+            out.println("A daemon is already running.");
+        }
+    }
+
+    private static String[] readRequest(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        int count = in.readInt();
+        if (count < 0 || count > 4096) {
+            throw new IOException("malformed request");
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < count; i += 1) {
+            args[i] = in.readUTF();
+        }
+        return args;
+    }
+}
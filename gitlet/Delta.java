@@ -0,0 +1,130 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/** Binary deltas between two versions of an object, as stored in packs.
+ *  A delta is
+ *
+ *      baseSize:varint resultSize:varint instructions
+ *
+ *  where each instruction is either a copy, written as a byte with the high
+ *  bit set followed by offset:varint and length:varint into the base, or
+ *  an insert, written as a length byte in 1..127 followed by that many
+ *  literal bytes.
+ *
+ *  Matches are found through a hash table over BLOCK-byte blocks of the
+ *  base taken at every BLOCK-th offset, extended forwards and backwards
+ *  once found, so creating a delta is linear in the two sizes.
+ */
+class Delta {
+
+    /** Size of the blocks of the base that are indexed. */
+    private static final int BLOCK = 16;
+    /** Longest run of literal bytes one insert can carry. */
+    private static final int MAX_INSERT = 127;
+    private static final int COPY = 0x80;
+
+    /** Returns the delta that turns BASE into TARGET. */
+    static byte[] create(byte[] base, byte[] target) {
+        HashMap<Integer, Integer> blocks = new HashMap<>();
+        for (int i = 0; i + BLOCK <= base.length; i += BLOCK) {
+            blocks.putIfAbsent(hash(base, i), i);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+        int pending = 0;
+        int i = 0;
+        while (i + BLOCK <= target.length) {
+            Integer at = blocks.get(hash(target, i));
+            if (at == null || !same(base, at, target, i, BLOCK)) {
+                i += 1;
+                continue;
+            }
+            int start = at;
+            int from = i;
+            while (start > 0 && from > pending && base[start - 1] == target[from - 1]) {
+                start -= 1;
+                from -= 1;
+            }
+            int length = (i - from) + BLOCK;
+            while (start + length < base.length && from + length < target.length
+                   && base[start + length] == target[from + length]) {
+                length += 1;
+            }
+            insert(out, target, pending, from);
+            out.write(COPY);
+            writeVarint(out, start);
+            writeVarint(out, length);
+            i = from + length;
+            pending = i;
+        }
+        insert(out, target, pending, target.length);
+        return out.toByteArray();
+    }
+
+    /** Returns the result of applying DELTA to BASE. */
+    static byte[] apply(byte[] base, byte[] delta) {
+        ByteBuffer in = ByteBuffer.wrap(delta);
+        long baseSize = Pack.readVarint(in);
+        long resultSize = Pack.readVarint(in);
+        if (baseSize != base.length || resultSize > Integer.MAX_VALUE) {
+            throw Utils.error("Corrupt delta.");
+        }
+        byte[] result = new byte[(int) resultSize];
+        int pos = 0;
+        while (in.hasRemaining()) {
+            int op = in.get() & 0xff;
+            if ((op & COPY) != 0) {
+                int offset = (int) Pack.readVarint(in);
+                int length = (int) Pack.readVarint(in);
+                System.arraycopy(base, offset, result, pos, length);
+                pos += length;
+            } else {
+                in.get(result, pos, op);
+                pos += op;
+            }
+        }
+        if (pos != result.length) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Writes TARGET[FROM..TO) to OUT as insert instructions. */
+    private static void insert(ByteArrayOutputStream out, byte[] target, int from, int to) {
+        while (from < to) {
+            int n = Math.min(MAX_INSERT, to - from);
+            out.write(n);
+            out.write(target, from, n);
+            from += n;
+        }
+    }
+
+    private static boolean same(byte[] a, int i, byte[] b, int j, int length) {
+        for (int k = 0; k < length; k += 1) {
+            if (a[i + k] != b[j + k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = 0; k < BLOCK; k += 1) {
+            h = 31 * h + data[start + k];
+        }
+        return h;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+}
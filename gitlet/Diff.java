@@ -0,0 +1,365 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/** Line-by-line comparison of file contents, with Myers' O((N+M)D)
+ *  algorithm in its linear-space form: each step finds the "middle snake"
+ *  of the remaining region by searching from both ends at once, and the
+ *  halves on either side are compared in turn.
+ *
+ *  Three things keep large inputs cheap, as in Git's xdiff:
+ *  - Lines are interned to ints, so comparisons are integer compares.
+ *  - The common prefix and suffix of each region are matched up front.
+ *  - A line with no equal anywhere in the other file cannot be matched.
+ *    Such lines are set aside before the search begins, which removes
+ *    most of the work when a file was largely rewritten.
+ *  Finally, a search that passes a cost of about sqrt(N + M) differences
+ *  (at least MIN_COST) gives up on the optimal split and cuts at the
+ *  furthest point it has reached.  The result is then not always a
+ *  minimal diff, but it stays close to linear time on any input.
+ *
+ *  Lines keep their terminators, and bytes map one-to-one onto the chars
+ *  of ISO-8859-1 strings, so joining the lines gives back the original
+ *  contents exactly.
+ */
+class Diff {
+
+    /** Lines of unchanged context around each change in a unified diff. */
+    private static final int CONTEXT = 3;
+
+    /** The smallest number of differences a search may explore before
+     *  settling for an approximate split. */
+    private static final int MIN_COST = 256;
+
+    /** Returns CONTENTS split into lines, each keeping its '\n'. */
+    static List<String> lines(byte[] contents) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < contents.length; i += 1) {
+            if (contents[i] == '\n') {
+                lines.add(new String(contents, start, i + 1 - start, StandardCharsets.ISO_8859_1));
+                start = i + 1;
+            }
+        }
+        if (start < contents.length) {
+            lines.add(new String(contents, start, contents.length - start,
+                                 StandardCharsets.ISO_8859_1));
+        }
+        return lines;
+    }
+
+    /** Returns the bytes of LINE, as split off by lines(). */
+    static byte[] bytes(String line) {
+        return line.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /** Returns true iff CONTENTS looks like binary data rather than text:
+     *  as in Git, if there is a NUL among its first 8000 bytes. */
+    static boolean isBinary(byte[] contents) {
+        for (int i = 0; i < Math.min(contents.length, 8000); i += 1) {
+            if (contents[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns, for each line of A, the index of the line of B it is
+     *  paired with in a longest (or nearly longest) common subsequence of
+     *  A and B, or -1 if it has none.  The pairs are increasing in both
+     *  indices. */
+    static int[] match(List<String> a, List<String> b) {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int[] x = intern(a, ids);
+        int[] y = intern(b, ids);
+        boolean[] inX = new boolean[ids.size()];
+        boolean[] inY = new boolean[ids.size()];
+        for (int id : x) {
+            inX[id] = true;
+        }
+        for (int id : y) {
+            inY[id] = true;
+        }
+        int[] xIndex = keep(x, inY);
+        int[] yIndex = keep(y, inX);
+        int[] result = new int[x.length];
+        Arrays.fill(result, -1);
+        new Matcher(pick(x, xIndex), pick(y, yIndex), xIndex, yIndex, result).run();
+        return result;
+    }
+
+    /** Writes the hunks of a unified diff from A to B to OUT, with CONTEXT
+     *  lines of context, nearby changes sharing a hunk. */
+    static void unified(List<String> a, List<String> b, OutputStream out) throws IOException {
+        int[] match = match(a, b);
+        List<int[]> changes = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (i < a.size() && match[i] == j) {
+                i += 1;
+                j += 1;
+                continue;
+            }
+            int i0 = i;
+            int j0 = j;
+            while (i < a.size() && match[i] == -1) {
+                i += 1;
+            }
+            j = i < a.size() ? match[i] : b.size();
+            changes.add(new int[] {i0, i, j0, j});
+        }
+        for (int first = 0; first < changes.size();) {
+            int last = first;
+            while (last + 1 < changes.size()
+                   && changes.get(last + 1)[0] - changes.get(last)[1] <= 2 * CONTEXT) {
+                last += 1;
+            }
+            writeHunk(a, b, changes.subList(first, last + 1), out);
+            first = last + 1;
+        }
+    }
+
+    /** Writes one hunk covering CHANGES, each {aStart, aEnd, bStart, bEnd}. */
+    private static void writeHunk(List<String> a, List<String> b, List<int[]> changes,
+                                  OutputStream out) throws IOException {
+        int[] first = changes.get(0);
+        int[] last = changes.get(changes.size() - 1);
+        int aStart = Math.max(0, first[0] - CONTEXT);
+        int aEnd = Math.min(a.size(), last[1] + CONTEXT);
+        int bStart = first[2] - (first[0] - aStart);
+        int bEnd = last[3] + (aEnd - last[1]);
+        out.write(bytes("@@ -" + range(aStart, aEnd) + " +" + range(bStart, bEnd) + " @@\n"));
+        int pos = aStart;
+        for (int[] change : changes) {
+            writeLines(out, ' ', a, pos, change[0]);
+            writeLines(out, '-', a, change[0], change[1]);
+            writeLines(out, '+', b, change[2], change[3]);
+            pos = change[1];
+        }
+        writeLines(out, ' ', a, pos, aEnd);
+    }
+
+    /** Returns the line range [START, END) as a unified diff writes it. */
+    private static String range(int start, int end) {
+        int count = end - start;
+        if (count == 1) {
+            return Integer.toString(start + 1);
+        }
+        return (count == 0 ? start : start + 1) + "," + count;
+    }
+
+    private static void writeLines(OutputStream out, char prefix, List<String> lines,
+                                   int lo, int hi) throws IOException {
+        for (int i = lo; i < hi; i += 1) {
+            String line = lines.get(i);
+            out.write(prefix);
+            out.write(bytes(line));
+            if (!line.endsWith("\n")) {
+                out.write(bytes("\n\\ No newline at end of file\n"));
+            }
+        }
+    }
+
+    private static int[] intern(List<String> lines, HashMap<String, Integer> ids) {
+        int[] result = new int[lines.size()];
+        for (int i = 0; i < result.length; i += 1) {
+            Integer id = ids.putIfAbsent(lines.get(i), ids.size());
+            result[i] = id == null ? ids.size() - 1 : id;
+        }
+        return result;
+    }
+
+    /** Returns the indices of the entries of IDS for which KEEP is set. */
+    private static int[] keep(int[] ids, boolean[] keep) {
+        int count = 0;
+        int[] result = new int[ids.length];
+        for (int i = 0; i < ids.length; i += 1) {
+            if (keep[ids[i]]) {
+                result[count] = i;
+                count += 1;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] pick(int[] ids, int[] index) {
+        int[] result = new int[index.length];
+        for (int i = 0; i < index.length; i += 1) {
+            result[i] = ids[index[i]];
+        }
+        return result;
+    }
+
+    /** Compares two sequences of line ids, recording pairs in RESULT by
+     *  their indices in the original files. */
+    private static class Matcher {
+        private final int[] a;
+        private final int[] b;
+        private final int[] aIndex;
+        private final int[] bIndex;
+        private final int[] result;
+        private final int maxCost;
+        /** Furthest-reaching x on each diagonal, searching forwards and
+         *  backwards. */
+        private final int[] forward;
+        private final int[] backward;
+
+        Matcher(int[] a, int[] b, int[] aIndex, int[] bIndex, int[] result) {
+            this.a = a;
+            this.b = b;
+            this.aIndex = aIndex;
+            this.bIndex = bIndex;
+            this.result = result;
+            maxCost = Math.max(MIN_COST, (int) Math.sqrt(a.length + b.length + 3));
+            forward = new int[2 * maxCost + 3];
+            backward = new int[2 * maxCost + 3];
+        }
+
+        /** Matches all of A against all of B.  Regions still to compare are
+         *  kept on an explicit stack, so deep splits cannot overflow the
+         *  Java stack. */
+        void run() {
+            ArrayDeque<int[]> regions = new ArrayDeque<>();
+            regions.push(new int[] {0, a.length, 0, b.length});
+            while (!regions.isEmpty()) {
+                int[] region = regions.pop();
+                int aLo = region[0];
+                int aHi = region[1];
+                int bLo = region[2];
+                int bHi = region[3];
+                while (aLo < aHi && bLo < bHi && a[aLo] == b[bLo]) {
+                    pair(aLo, bLo);
+                    aLo += 1;
+                    bLo += 1;
+                }
+                while (aLo < aHi && bLo < bHi && a[aHi - 1] == b[bHi - 1]) {
+                    aHi -= 1;
+                    bHi -= 1;
+                    pair(aHi, bHi);
+                }
+                if (aLo == aHi || bLo == bHi) {
+                    continue;
+                }
+                int[] split = bisect(aLo, aHi, bLo, bHi);
+                if (split != null) {
+                    regions.push(new int[] {split[0], aHi, split[1], bHi});
+                    regions.push(new int[] {aLo, split[0], bLo, split[1]});
+                }
+            }
+        }
+
+        private void pair(int i, int j) {
+            result[aIndex[i]] = bIndex[j];
+        }
+
+        /** Returns a point {x, y} through which a shortest edit path of the
+         *  region A[ALO..AHI) and B[BLO..BHI) passes, dividing it into two
+         *  smaller regions, or null if the regions have nothing in common.
+         *  Both ends of the region differ, so such a point is strictly
+         *  inside it. */
+        private int[] bisect(int aLo, int aHi, int bLo, int bHi) {
+            int n = aHi - aLo;
+            int m = bHi - bLo;
+            int maxD = Math.min((n + m + 1) / 2, maxCost);
+            int offset = maxD + 1;
+            int limit = 2 * maxD + 3;
+            Arrays.fill(forward, 0, limit, -1);
+            Arrays.fill(backward, 0, limit, -1);
+            forward[offset + 1] = 0;
+            backward[offset + 1] = 0;
+            int delta = n - m;
+            boolean odd = (delta & 1) != 0;
+            int k1start = 0;
+            int k1end = 0;
+            int k2start = 0;
+            int k2end = 0;
+            for (int d = 0; d < maxD; d += 1) {
+                for (int k1 = -d + k1start; k1 <= d - k1end; k1 += 2) {
+                    int k1Off = offset + k1;
+                    int x1;
+                    if (k1 == -d || (k1 != d && forward[k1Off - 1] < forward[k1Off + 1])) {
+                        x1 = forward[k1Off + 1];
+                    } else {
+                        x1 = forward[k1Off - 1] + 1;
+                    }
+                    int y1 = x1 - k1;
+                    while (x1 < n && y1 < m && a[aLo + x1] == b[bLo + y1]) {
+                        x1 += 1;
+                        y1 += 1;
+                    }
+                    forward[k1Off] = x1;
+                    if (x1 > n) {
+                        k1end += 2;
+                    } else if (y1 > m) {
+                        k1start += 2;
+                    } else if (odd) {
+                        int k2Off = offset + delta - k1;
+                        if (k2Off >= 0 && k2Off < limit && backward[k2Off] != -1
+                            && x1 >= n - backward[k2Off]) {
+                            return new int[] {aLo + x1, bLo + y1};
+                        }
+                    }
+                }
+                for (int k2 = -d + k2start; k2 <= d - k2end; k2 += 2) {
+                    int k2Off = offset + k2;
+                    int x2;
+                    if (k2 == -d || (k2 != d && backward[k2Off - 1] < backward[k2Off + 1])) {
+                        x2 = backward[k2Off + 1];
+                    } else {
+                        x2 = backward[k2Off - 1] + 1;
+                    }
+                    int y2 = x2 - k2;
+                    while (x2 < n && y2 < m
+                           && a[aHi - x2 - 1] == b[bHi - y2 - 1]) {
+                        x2 += 1;
+                        y2 += 1;
+                    }
+                    backward[k2Off] = x2;
+                    if (x2 > n) {
+                        k2end += 2;
+                    } else if (y2 > m) {
+                        k2start += 2;
+                    } else if (!odd) {
+                        int k1Off = offset + delta - k2;
+                        if (k1Off >= 0 && k1Off < limit && forward[k1Off] != -1) {
+                            int x1 = forward[k1Off];
+                            int y1 = offset + x1 - k1Off;
+                            if (x1 >= n - x2) {
+                                return new int[] {aLo + x1, bLo + y1};
+                            }
+                        }
+                    }
+                }
+            }
+            return maxD < (n + m + 1) / 2 ? furthest(aLo, bLo, n, m, maxD, offset) : null;
+        }
+
+        /** Returns the point the forward search of a region N by M at ALO,
+         *  BLO got furthest along after MAXD steps, or null if that is no
+         *  progress at all. */
+        private int[] furthest(int aLo, int bLo, int n, int m, int maxD, int offset) {
+            int bestX = 0;
+            int bestY = 0;
+            for (int k = -maxD; k <= maxD; k += 1) {
+                int x = forward[offset + k];
+                int y = x - k;
+                if (x >= 0 && x <= n && y >= 0 && y <= m && x + y > bestX + bestY) {
+                    bestX = x;
+                    bestY = y;
+                }
+            }
+            if (bestX + bestY == 0 || (bestX == n && bestY == m)) {
+                return null;
+            }
+            return new int[] {aLo + bestX, bLo + bestY};
+        }
+    }
+}
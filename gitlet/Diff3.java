@@ -0,0 +1,95 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/** A three-way merge of text, line by line, as done by diff3 and Git.
+ *
+ *  Both sides are compared with the base (see Diff), and the base lines
+ *  matched on both sides serve as synchronization points.  Between two
+ *  of them lies a chunk that at most one side changed, in which case that
+ *  side's version is taken, or that both changed.  When both changed a
+ *  chunk in the same way it is taken once; otherwise it is a conflict,
+ *  and only that chunk is written between markers:
+ *
+ *      <<<<<<< HEAD
+ *      the current branch's lines
+ *      =======
+ *      the given branch's lines
+ *      >>>>>>>
+ */
+class Diff3 {
+
+    /** Writes the merge of OURS and THEIRS, both descended from BASE, to
+     *  OUT.  Returns the number of conflicting chunks. */
+    static int merge(List<String> base, List<String> ours, List<String> theirs,
+                     OutputStream out) throws IOException {
+        int[] toOurs = Diff.match(base, ours);
+        int[] toTheirs = Diff.match(base, theirs);
+        int conflicts = 0;
+        int i = 0;
+        int j = 0;
+        int k = 0;
+        while (true) {
+            while (i < base.size() && toOurs[i] == j && toTheirs[i] == k) {
+                write(out, base, i, i + 1);
+                i += 1;
+                j += 1;
+                k += 1;
+            }
+            int next = i;
+            while (next < base.size() && (toOurs[next] == -1 || toTheirs[next] == -1)) {
+                next += 1;
+            }
+            int oursEnd = next < base.size() ? toOurs[next] : ours.size();
+            int theirsEnd = next < base.size() ? toTheirs[next] : theirs.size();
+            if (next == i && oursEnd == j && theirsEnd == k) {
+                if (i == base.size()) {
+                    return conflicts;
+                }
+                continue;
+            }
+            boolean oursChanged = !same(base, i, next, ours, j, oursEnd);
+            boolean theirsChanged = !same(base, i, next, theirs, k, theirsEnd);
+            if (!theirsChanged) {
+                write(out, ours, j, oursEnd);
+            } else if (!oursChanged || same(ours, j, oursEnd, theirs, k, theirsEnd)) {
+                write(out, theirs, k, theirsEnd);
+            } else {
+                conflicts += 1;
+                out.write(Diff.bytes("<<<<<<< HEAD\n"));
+                writeLines(out, ours, j, oursEnd);
+                out.write(Diff.bytes("=======\n"));
+                writeLines(out, theirs, k, theirsEnd);
+                out.write(Diff.bytes(">>>>>>>\n"));
+            }
+            i = next;
+            j = oursEnd;
+            k = theirsEnd;
+        }
+    }
+
+    /** Returns true iff A[ALO..AHI) and B[BLO..BHI) are the same lines. */
+    private static boolean same(List<String> a, int aLo, int aHi,
+                                List<String> b, int bLo, int bHi) {
+        return a.subList(aLo, aHi).equals(b.subList(bLo, bHi));
+    }
+
+    private static void write(OutputStream out, List<String> lines, int lo, int hi)
+        throws IOException {
+        for (int i = lo; i < hi; i += 1) {
+            out.write(Diff.bytes(lines.get(i)));
+        }
+    }
+
+    /** Writes LINES[LO..HI) between markers, making sure the last ends its
+     *  line so the marker after it starts one. */
+    private static void writeLines(OutputStream out, List<String> lines, int lo, int hi)
+        throws IOException {
+        write(out, lines, lo, hi);
+        if (hi > lo && !lines.get(hi - 1).endsWith("\n")) {
+            out.write('\n');
+        }
+    }
+}
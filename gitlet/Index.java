@@ -0,0 +1,263 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/** The stat cache kept in .gitlet/index.  For every working-tree file that
+ *  has been hashed it remembers the size, modification time and inode the
+ *  file had at that moment together with its object id, so a file is only
+ *  read and rehashed again once one of those changes.
+ *
+ *  The file is a flat binary table that is read through a memory map:
+ *
+ *      "GIDX" version:int count:int
+ *      count * (pathLength:short path:UTF-8 size:long mtime:long
+ *               inode:long id:20 bytes)
+ *      SHA-1 of everything above:20 bytes
+ *
+ *  As in Git, an entry whose mtime is not older than the index file itself
+ *  is "racy" (the file may have changed again within the same timestamp
+ *  tick) and is always rehashed.
+ */
+class Index {
+
+    /** Location of the index. */
+    static final File INDEX_FILE = Utils.join(Repository.GITLET_DIR, "index");
+
+    private static final byte[] MAGIC = "GIDX".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int ID_BYTES = 20;
+
+    /** Cached stat data and id of one file. */
+    private static final class Entry {
+        private final long size;
+        private final long mtime;
+        private final long inode;
+        private final String id;
+
+        Entry(long size, long mtime, long inode, String id) {
+            this.size = size;
+            this.mtime = mtime;
+            this.inode = inode;
+            this.id = id;
+        }
+
+        boolean matches(Entry stat) {
+            return size == stat.size && mtime == stat.mtime && inode == stat.inode;
+        }
+    }
+
+    /** Entries by path relative to the working directory. */
+    private static Map<String, Entry> entries;
+    /** Modification time of INDEX_FILE when it was loaded, in nanoseconds. */
+    private static long indexTime;
+    /** True iff ENTRIES differ from what is on disk. */
+    private static volatile boolean dirty;
+    /** False once the platform turns out not to support "unix:" attributes. */
+    private static volatile boolean unixAttributes = true;
+
+    /** Returns the object id of the working-tree file NAME, rehashing it
+     *  only if its stat data no longer matches the cached entry. */
+    static String idOf(String name) {
+        File file = Utils.join(Repository.CWD, name);
+        Entry stat = stat(file);
+        String id = cached(name, stat);
+        if (id == null) {
+            id = ObjectStore.hash(file);
+            record(name, stat, id);
+        }
+        return id;
+    }
+
+    /** Stores the working-tree file NAME in the object store and returns
+     *  its id.  A file whose cached id is already stored is not read. */
+    static String store(String name) {
+        File file = Utils.join(Repository.CWD, name);
+        Entry stat = stat(file);
+        String id = cached(name, stat);
+        if (id == null || !ObjectStore.contains(id)) {
+            id = ObjectStore.write(file);
+            record(name, stat, id);
+        }
+        return id;
+    }
+
+    /** Returns the cached id of NAME if STAT still matches its entry and
+     *  the entry is not racy, or null if the file has to be hashed. */
+    private static String cached(String name, Entry stat) {
+        Entry cached = entries().get(name);
+        if (stat != null && cached != null && cached.matches(stat)
+            && cached.mtime < indexTime) {
+            return cached.id;
+        }
+        return null;
+    }
+
+    /** Records that the working-tree file NAME currently has object id ID. */
+    static void update(String name, String id) {
+        record(name, stat(Utils.join(Repository.CWD, name)), id);
+    }
+
+    /** Forgets whatever is cached for NAME. */
+    static void remove(String name) {
+        if (entries().remove(name) != null) {
+            dirty = true;
+        }
+    }
+
+    private static void record(String name, Entry stat, String id) {
+        if (stat == null) {
+            remove(name);
+            return;
+        }
+        entries().put(name, new Entry(stat.size, stat.mtime, stat.inode, id));
+        dirty = true;
+    }
+
+    /** Writes the index back to INDEX_FILE if anything changed. */
+    static void save() {
+        if (!dirty || !Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        File temp = Utils.join(Repository.GITLET_DIR, "index.lock");
+        MessageDigest md = Utils.sha1Digest();
+        try (DigestOutputStream digest = new DigestOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(temp.toPath())), md);
+             DataOutputStream out = new DataOutputStream(digest)) {
+            String[] names = entries.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.length);
+            for (String name : names) {
+                Entry entry = entries.get(name);
+                byte[] path = name.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(path.length);
+                out.write(path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.mtime);
+                out.writeLong(entry.inode);
+                out.write(Utils.fromHex(entry.id));
+            }
+            digest.on(false);
+            out.write(md.digest());
+        } catch (IOException excp) {
+            temp.delete();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), INDEX_FILE.toPath(),
+                       StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            indexTime = stat(INDEX_FILE).mtime;
+            dirty = false;
+        } catch (IOException excp) {
+            temp.delete();
+        }
+    }
+
+    /** Returns the loaded entries, reading INDEX_FILE on first use.  A
+     *  missing or damaged index is simply treated as empty. */
+    private static synchronized Map<String, Entry> entries() {
+        if (entries == null) {
+            entries = new ConcurrentHashMap<>();
+            if (INDEX_FILE.exists() && !load()) {
+                entries.clear();
+                dirty = true;
+            }
+        }
+        return entries;
+    }
+
+    /** Reads INDEX_FILE into ENTRIES, returning false if it is damaged. */
+    private static boolean load() {
+        try (FileChannel channel = FileChannel.open(INDEX_FILE.toPath())) {
+            long length = channel.size();
+            if (length < MAGIC.length + 8 + ID_BYTES) {
+                return false;
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            MessageDigest md = Utils.sha1Digest();
+            md.update(map.duplicate().limit((int) length - ID_BYTES));
+            byte[] checksum = new byte[ID_BYTES];
+            map.duplicate().position((int) length - ID_BYTES).get(checksum);
+            if (!Arrays.equals(md.digest(), checksum)) {
+                return false;
+            }
+            byte[] magic = new byte[MAGIC.length];
+            map.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || map.getInt() != VERSION) {
+                return false;
+            }
+            int count = map.getInt();
+            byte[] id = new byte[ID_BYTES];
+            for (int i = 0; i < count; i += 1) {
+                byte[] path = new byte[map.getShort() & 0xffff];
+                map.get(path);
+                long size = map.getLong();
+                long mtime = map.getLong();
+                long inode = map.getLong();
+                map.get(id);
+                entries.put(new String(path, StandardCharsets.UTF_8),
+                            new Entry(size, mtime, inode, Utils.toHex(id)));
+            }
+            indexTime = stat(INDEX_FILE).mtime;
+            return true;
+        } catch (IOException | RuntimeException excp) {
+            return false;
+        }
+    }
+
+    /** Returns the current stat data of FILE (with no id), or null if it is
+     *  not a plain file.  Uses a single "unix:" attribute read where the
+     *  platform supports it, to get the inode along with size and mtime. */
+    private static Entry stat(File file) {
+        Path path = file.toPath();
+        try {
+            if (unixAttributes) {
+                try {
+                    Map<String, Object> attrs = Files.readAttributes(path,
+                        "unix:isRegularFile,size,lastModifiedTime,ino");
+                    if (!(Boolean) attrs.get("isRegularFile")) {
+                        return null;
+                    }
+                    return new Entry((Long) attrs.get("size"),
+                                     nanos((FileTime) attrs.get("lastModifiedTime")),
+                                     (Long) attrs.get("ino"), null);
+                } catch (UnsupportedOperationException excp) {
+                    unixAttributes = false;
+                }
+            }
+            BasicFileAttributes attrs =
+                Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attrs.isRegularFile()) {
+                return null;
+            }
+            Object key = attrs.fileKey();
+            return new Entry(attrs.size(), nanos(attrs.lastModifiedTime()),
+                             key == null ? 0 : key.hashCode(), null);
+        } catch (IOException excp) {
+            return null;
+        }
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+}
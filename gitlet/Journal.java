@@ -0,0 +1,292 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/** The commit journal, .gitlet/journal: the metadata of every commit in
+ *  the order it was made, appended as it is created.  global-log reads it
+ *  front to back through a memory map instead of opening every commit.
+ *
+ *      "GJNL" version:int
+ *      records: (length:int id:20 bytes parent:20 bytes
+ *                secondParent:20 bytes timestamp:long
+ *                timeLength:int time:UTF-8 messageLength:int message:UTF-8
+ *                crc:int length:int)
+ *
+ *  Missing parents are written as 20 zero bytes.  LENGTH counts the bytes
+ *  from the id through the message, and CRC is the CRC32 of those bytes.
+ *  Records are buffered and appended by save() at the end of the
+ *  command.  Before appending, save() checks that the journal ends with a
+ *  complete record, found from the LENGTH at the very end; if a crash cut
+ *  the last one short, the journal is truncated after the last record
+ *  that checks out, so that new records are never read at the wrong
+ *  offset.  A version 1 journal, whose records had neither CRC nor
+ *  trailing LENGTH, is rewritten in this format first.
+ */
+class Journal {
+
+    /** Location of the journal. */
+    static final File JOURNAL_FILE = Utils.join(Repository.GITLET_DIR, "journal");
+
+    private static final byte[] MAGIC = "GJNL".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 2;
+    private static final int HEADER = 8;
+    private static final int ID_BYTES = 20;
+    private static final byte[] NO_ID = new byte[ID_BYTES];
+
+    /** Encoded records not yet appended. */
+    private static final List<byte[]> PENDING = new ArrayList<>();
+
+    /** Queues a record for COMMIT, which must already be in the
+     *  CommitGraph. */
+    static void add(Commit commit) {
+        PENDING.add(encode(commit.getID(), commit.getParentID(), commit.getSecondParentID(),
+                           commit.getTimestamp(), commit.getTime(), commit.getMessage()));
+    }
+
+    /** Appends the queued records to JOURNAL_FILE, first building it from
+     *  the CommitGraph if there is none. */
+    static void save() {
+        if (!Repository.GITLET_DIR.exists() || PENDING.isEmpty() && JOURNAL_FILE.exists()) {
+            return;
+        }
+        try {
+            recover();
+            if (!JOURNAL_FILE.exists()) {
+                PENDING.clear();
+                rebuild();
+            }
+            boolean fresh = !JOURNAL_FILE.exists();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(JOURNAL_FILE.toPath(), StandardOpenOption.CREATE,
+                                           StandardOpenOption.APPEND)))) {
+                if (fresh) {
+                    out.write(MAGIC);
+                    out.writeInt(VERSION);
+                }
+                for (byte[] record : PENDING) {
+                    out.write(record);
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write journal: %s", excp.getMessage());
+        }
+        PENDING.clear();
+    }
+
+    /** Writes the global-log entry of every commit to OUT, oldest first,
+     *  streaming straight from the mapped journal. */
+    static void printAll(Writer out) throws IOException {
+        recover();
+        if (!JOURNAL_FILE.exists()) {
+            save();
+        }
+        if (JOURNAL_FILE.exists()) {
+            try (FileChannel channel = FileChannel.open(JOURNAL_FILE.toPath())) {
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                                                   0, channel.size());
+                print(map.position(HEADER), out);
+            }
+        }
+        for (byte[] record : PENDING) {
+            print(ByteBuffer.wrap(record), out);
+        }
+    }
+
+    /** Writes the entries of the records remaining in BUFFER to OUT,
+     *  stopping at the first that does not check out. */
+    private static void print(ByteBuffer buffer, Writer out) throws IOException {
+        byte[] id = new byte[ID_BYTES];
+        for (int end = recordEnd(buffer, buffer.position()); end != -1;
+             end = recordEnd(buffer, end)) {
+            buffer.position(buffer.position() + 4);
+            buffer.get(id);
+            buffer.position(buffer.position() + 2 * ID_BYTES + 8);
+            String time = string(buffer);
+            String message = string(buffer);
+            out.write("===\ncommit ");
+            out.write(Utils.toHex(id));
+            out.write("\nDate: ");
+            out.write(time);
+            out.write("\n");
+            out.write(message);
+            out.write("\n\n");
+            buffer.position(end);
+        }
+    }
+
+    /** Returns the offset just past the record that starts at START in
+     *  BUFFER, or -1 if there is no complete record there whose CRC and
+     *  lengths check out. */
+    private static int recordEnd(ByteBuffer buffer, int start) {
+        if (start < 0 || start > buffer.limit() - 4) {
+            return -1;
+        }
+        int length = buffer.getInt(start);
+        int body = start + 4;
+        if (length < 0 || length > buffer.limit() - body - 8) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(body).limit(body + length));
+        if ((int) crc.getValue() != buffer.getInt(body + length)
+            || buffer.getInt(body + length + 4) != length) {
+            return -1;
+        }
+        return body + length + 8;
+    }
+
+    /** Makes JOURNAL_FILE end with a complete record, truncating whatever
+     *  follows the last one that checks out, or deletes it if a crash cut
+     *  even its header short.  Rewrites a version 1 journal in the current
+     *  format. */
+    private static void recover() throws IOException {
+        if (!JOURNAL_FILE.exists()) {
+            return;
+        }
+        int end;
+        try (FileChannel channel = FileChannel.open(JOURNAL_FILE.toPath())) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                                               0, channel.size());
+            end = validLength(map);
+        }
+        if (end == -1) {
+            JOURNAL_FILE.delete();
+        } else if (end < JOURNAL_FILE.length()) {
+            try (FileChannel channel = FileChannel.open(JOURNAL_FILE.toPath(),
+                                                        StandardOpenOption.WRITE)) {
+                channel.truncate(end);
+            }
+        }
+    }
+
+    /** Returns how much of the journal MAP is whole: its length if it
+     *  ends with a complete record, the end of the last record that checks
+     *  out if not, or -1 if even its header is cut short.  A version 1
+     *  journal is first rewritten in the current format, which is all
+     *  whole. */
+    private static int validLength(MappedByteBuffer map) throws IOException {
+        if (map.limit() < HEADER) {
+            return -1;
+        }
+        byte[] magic = new byte[MAGIC.length];
+        map.get(0, magic);
+        int version = map.getInt(4);
+        if (!Arrays.equals(magic, MAGIC) || version < 1 || version > VERSION) {
+            throw Utils.error("Unsupported journal format.");
+        } else if (version == 1) {
+            convert(map);
+            return Integer.MAX_VALUE;
+        }
+        int size = map.limit();
+        if (size == HEADER || recordEnd(map, size - 12 - map.getInt(size - 4)) == size) {
+            return size;
+        }
+        int end = HEADER;
+        for (int next = recordEnd(map, end); next != -1; next = recordEnd(map, end)) {
+            end = next;
+        }
+        return end;
+    }
+
+    /** Replaces JOURNAL_FILE with the version 1 journal MAP in the current
+     *  format, dropping a record that was cut short at its end. */
+    private static void convert(ByteBuffer map) throws IOException {
+        File temp = Utils.join(Repository.GITLET_DIR, "journal.lock");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                 Files.newOutputStream(temp.toPath())))) {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            map.position(HEADER);
+            while (map.remaining() >= 4) {
+                int length = map.getInt();
+                if (length < 0 || length > map.remaining()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                map.get(body);
+                out.write(frame(body));
+            }
+        }
+        Files.move(temp.toPath(), JOURNAL_FILE.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                   StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Returns a stream for global-log output on System.out. */
+    static Writer stdout() {
+        return new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                                  1 << 16);
+    }
+
+    /** Queues records for every commit already in the repository, taken
+     *  from the CommitGraph in generation order. */
+    private static void rebuild() {
+        int size = CommitGraph.size();
+        Integer[] order = new Integer[size];
+        for (int pos = 0; pos < size; pos += 1) {
+            order[pos] = pos;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int cmp = Integer.compare(CommitGraph.generation(a), CommitGraph.generation(b));
+            return cmp != 0 ? cmp : Long.compare(CommitGraph.timestamp(a),
+                                                 CommitGraph.timestamp(b));
+        });
+        for (int pos : order) {
+            int parent = CommitGraph.parent(pos);
+            int second = CommitGraph.secondParent(pos);
+            PENDING.add(encode(CommitGraph.id(pos),
+                               parent == -1 ? null : CommitGraph.id(parent),
+                               second == -1 ? null : CommitGraph.id(second),
+                               CommitGraph.timestamp(pos), CommitGraph.time(pos),
+                               CommitGraph.message(pos)));
+        }
+    }
+
+    private static byte[] encode(String id, String parent, String secondParent,
+                                 long timestamp, String time, String message) {
+        byte[] timeBytes = time.getBytes(StandardCharsets.UTF_8);
+        byte[] messageBytes = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(3 * ID_BYTES + 8 + 4 + timeBytes.length
+                                              + 4 + messageBytes.length);
+        body.put(Utils.fromHex(id));
+        body.put(parent == null ? NO_ID : Utils.fromHex(parent));
+        body.put(secondParent == null ? NO_ID : Utils.fromHex(secondParent));
+        body.putLong(timestamp);
+        body.putInt(timeBytes.length).put(timeBytes);
+        body.putInt(messageBytes.length).put(messageBytes);
+        return frame(body.array());
+    }
+
+    /** Returns the record holding BODY: its length, BODY, its CRC32 and
+     *  its length again. */
+    private static byte[] frame(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer record = ByteBuffer.allocate(4 + body.length + 8);
+        record.putInt(body.length).put(body);
+        record.putInt((int) crc.getValue()).putInt(body.length);
+        return record.array();
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -1,7 +1,15 @@
 package gitlet;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 // import gitlet.Repository;
 
 /**
@@ -15,9 +23,31 @@ public class Main {
      * <COMMAND> <OPERAND1> <OPERAND2> ...
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("daemon")) {
+            daemon(args);
+            return;
+        } else if (args.length > 0 && args[0].equals("batch")) {
+            batch(args);
+            return;
+        }
+        if (Daemon.forward(args)) {
+            return;
+        }
+        try {
+            run(args);
+            Repository.flush();
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Runs the command ARGS against the repository in the current
+     *  directory.  Its changes are left in memory for Repository.flush();
+     *  a user error is thrown as a GitletException carrying the message
+     *  to print. */
+    static void run(String[] args) {
         if (args.length == 0) {
-            System.out.println("Please enter a command.");
-            System.exit(0);
+            throw Utils.error("Please enter a command.");
         }
         String firstArg = args[0];
         Repository gitlet = new Repository();
@@ -27,16 +57,21 @@ public class Main {
                 break;
             case "add":
                 if (gitlet.checkIfInitialized()) {
-                    gitlet.makeAdd(args[1]);
+                    if (args.length < 2) {
+                        throw Utils.error("Incorrect operands");
+                    }
+                    gitlet.makeAdd(Arrays.copyOfRange(args, 1, args.length));
                 }
                 break;
             case "commit":
                 if (gitlet.checkIfInitialized()) {
+                    checkOperands(args, 1);
                     gitlet.makeCommit(args[1]);
                 }
                 break;
             case "rm":
                 if (gitlet.checkIfInitialized()) {
+                    checkOperands(args, 1);
                     gitlet.remove(args[1]);
                 }
                 break;
@@ -52,7 +87,12 @@ public class Main {
                 break;
             case "find":
                 if (gitlet.checkIfInitialized()) {
-                    gitlet.find(args[1]);
+                    if (args.length == 3 && args[1].equals("--grep")) {
+                        gitlet.grep(args[2]);
+                    } else {
+                        checkOperands(args, 1);
+                        gitlet.find(args[1]);
+                    }
                 }
                 break;
             case "status":
@@ -68,39 +108,132 @@ public class Main {
                     } else if (arg.length == 2) {
                         File file = new File(arg[1]);
                         gitlet.checkout(file);
+                    } else if (arg.length == 3 && arg[1].equals("--")) {
+                        gitlet.checkout(arg[0], arg[2]);
                     } else {
-                        if (arg[1].equals("--")) {
-                            gitlet.checkout(arg[0], arg[2]);
-                        } else {
-                            System.out.println("Incorrect operands");
-                            System.exit(0);
-                        }
+                        throw Utils.error("Incorrect operands");
                     }
                 }
                 break;
             case "branch":
                 if (gitlet.checkIfInitialized()) {
+                    checkOperands(args, 1);
                     gitlet.branch(args[1]);
                 }
                 break;
             case "rm-branch":
                 if (gitlet.checkIfInitialized()) {
+                    checkOperands(args, 1);
                     gitlet.rmBranch(args[1]);
                 }
                 break;
             case "reset":
                 if (gitlet.checkIfInitialized()) {
+                    checkOperands(args, 1);
                     gitlet.reset(args[1]);
                 }
                 break;
             case "merge":
                 if (gitlet.checkIfInitialized()) {
+                    checkOperands(args, 1);
                     gitlet.merge(args[1]);
                 }
                 break;
+            case "diff":
+                if (gitlet.checkIfInitialized()) {
+                    List<String> revisions = new ArrayList<>();
+                    List<String> paths = new ArrayList<>();
+                    boolean cached = false;
+                    boolean renames = true;
+                    boolean copies = false;
+                    boolean inPaths = false;
+                    for (int i = 1; i < args.length; i += 1) {
+                        if (inPaths) {
+                            paths.add(args[i]);
+                        } else if (args[i].equals("--")) {
+                            inPaths = true;
+                        } else if (args[i].equals("--cached") || args[i].equals("--staged")) {
+                            cached = true;
+                        } else if (args[i].equals("--no-renames")) {
+                            renames = false;
+                        } else if (args[i].equals("-C") || args[i].equals("--find-copies")) {
+                            copies = true;
+                        } else {
+                            revisions.add(args[i]);
+                        }
+                    }
+                    gitlet.diff(revisions, cached, paths, renames, copies);
+                }
+                break;
+            case "merge-base":
+                if (gitlet.checkIfInitialized()) {
+                    checkOperands(args, 2);
+                    gitlet.mergeBase(args[1], args[2]);
+                }
+                break;
+            case "gc":
+            case "repack":
+                if (gitlet.checkIfInitialized()) {
+                    gitlet.gc();
+                }
+                break;
             default:
-                System.out.println("No command with that name exists.");
-                System.exit(0);
+                throw Utils.error("No command with that name exists.");
+        }
+    }
+
+    /** Throws the "Incorrect operands" error unless the command in ARGS
+     *  is followed by exactly COUNT operands. */
+    private static void checkOperands(String[] args, int count) {
+        if (args.length != count + 1) {
+            throw Utils.error("Incorrect operands");
+        }
+    }
+
+    /** Usage: batch [FILE].  Runs the commands in FILE, or on the standard
+     *  input, as described in Batch. */
+    private static void batch(String[] args) {
+        try {
+            new Repository().checkIfInitialized();
+            if (args.length > 2) {
+                throw Utils.error("Incorrect operands");
+            }
+            if (Daemon.isRunning()) {
+                throw Utils.error("Stop the daemon before running a batch.");
+            }
+            Reader source = args.length == 2
+                ? new FileReader(args[1], StandardCharsets.UTF_8)
+                : new InputStreamReader(System.in, StandardCharsets.UTF_8);
+            int failed;
+            try (BufferedReader in = new BufferedReader(source)) {
+                failed = Batch.run(in);
+            }
+            if (failed > 0) {
+                System.out.println(failed + " command(s) failed.");
+            }
+        } catch (IOException excp) {
+            System.out.println("Cannot read batch: " + excp.getMessage());
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
+        }
+    }
+
+    /** Usage: daemon [stop].  Serves this repository until stopped, or
+     *  stops the daemon serving it. */
+    private static void daemon(String[] args) {
+        try {
+            new Repository().checkIfInitialized();
+            if (args.length == 1) {
+                Daemon.serve();
+            } else if (args.length == 2 && args[1].equals("stop")) {
+                if (!Daemon.forward(args)) {
+                    throw Utils.error("No daemon is running.");
+                }
+            } else {
+                throw Utils.error("Incorrect operands");
+            }
+        } catch (GitletException excp) {
+            System.out.println(excp.getMessage());
         }
     }
 }
@@ -0,0 +1,208 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/** An inverted index over commit messages, kept in .gitlet/messages so
+ *  that find never has to look at the commits themselves.
+ *
+ *  Entries are spread over small append-only bucket files, each a list of
+ *  (length:int key:UTF-8 id:20 bytes) records:
+ *
+ *      m<xx>    whole messages, bucketed by the first byte of the SHA-1
+ *               of the message;
+ *      t<hex>   lower-cased message tokens (runs of letters and digits),
+ *               bucketed by the hex of the UTF-8 bytes of their first
+ *               two characters, so a prefix query reads one bucket.
+ *
+ *  A lookup therefore reads a single small file.  New commits are
+ *  buffered and appended by save() at the end of the command.
+ */
+class MessageIndex {
+
+    /** Directory holding the bucket files. */
+    static final File MESSAGES_CWD = Utils.join(Repository.GITLET_DIR, "messages");
+
+    private static final int ID_BYTES = 20;
+
+    /** Records not yet appended, by bucket file name. */
+    private static final TreeMap<String, List<byte[]>> PENDING = new TreeMap<>();
+
+    /** Indexes the message of the commit ID, which must already be in the
+     *  CommitGraph. */
+    static void add(String id, String message) {
+        if (!ensureBuilt()) {
+            queue(id, message);
+        }
+    }
+
+    /** Returns the ids of all commits whose message is exactly MESSAGE,
+     *  oldest first. */
+    static List<String> find(String message) {
+        ensureBuilt();
+        List<String> result = new ArrayList<>();
+        for (String[] record : records(messageBucket(message))) {
+            if (record[0].equals(message)) {
+                result.add(record[1]);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids of all commits whose message contains every token
+     *  of QUERY, oldest first.  A token ending in '*' matches any token
+     *  it is a prefix of. */
+    static List<String> grep(String query) {
+        ensureBuilt();
+        LinkedHashSet<String> result = null;
+        String[] terms = query.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}*]+");
+        for (String term : terms) {
+            boolean prefix = term.endsWith("*");
+            String token = prefix ? term.substring(0, term.length() - 1) : term;
+            token = token.replace("*", "");
+            if (token.isEmpty()) {
+                continue;
+            }
+            LinkedHashSet<String> matches = new LinkedHashSet<>();
+            for (String bucket : tokenBuckets(token, prefix)) {
+                for (String[] record : records(bucket)) {
+                    if (prefix ? record[0].startsWith(token) : record[0].equals(token)) {
+                        matches.add(record[1]);
+                    }
+                }
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.retainAll(matches);
+            }
+        }
+        return result == null ? new ArrayList<>() : new ArrayList<>(result);
+    }
+
+    /** Appends every queued record to its bucket. */
+    static void save() {
+        if (PENDING.isEmpty() || !Repository.GITLET_DIR.exists()) {
+            return;
+        }
+        MESSAGES_CWD.mkdir();
+        for (String bucket : PENDING.keySet()) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(Utils.join(MESSAGES_CWD, bucket).toPath(),
+                                           StandardOpenOption.CREATE,
+                                           StandardOpenOption.APPEND)))) {
+                for (byte[] record : PENDING.get(bucket)) {
+                    out.write(record);
+                }
+            } catch (IOException excp) {
+                throw Utils.error("Cannot write message index: %s", excp.getMessage());
+            }
+        }
+        PENDING.clear();
+    }
+
+    /** Queues the records for the commit ID with MESSAGE. */
+    private static void queue(String id, String message) {
+        pend(messageBucket(message), message, id);
+        LinkedHashSet<String> tokens = new LinkedHashSet<>();
+        for (String token : message.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        for (String token : tokens) {
+            pend(tokenBucket(token), token, id);
+        }
+    }
+
+    private static void pend(String bucket, String key, String id) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(4 + keyBytes.length + ID_BYTES);
+        record.putInt(keyBytes.length).put(keyBytes).put(Utils.fromHex(id));
+        PENDING.computeIfAbsent(bucket, k -> new ArrayList<>()).add(record.array());
+    }
+
+    /** Builds the index from the commit-graph the first time it is needed
+     *  in a repository that predates it.  Returns true iff it did so. */
+    private static boolean ensureBuilt() {
+        if (MESSAGES_CWD.exists() || !PENDING.isEmpty()) {
+            return false;
+        }
+        int size = CommitGraph.size();
+        for (int pos = 0; pos < size; pos += 1) {
+            queue(CommitGraph.id(pos), CommitGraph.message(pos));
+        }
+        save();
+        MESSAGES_CWD.mkdir();
+        return true;
+    }
+
+    /** Returns the (key, id) pairs stored in BUCKET, on disk and pending. */
+    private static List<String[]> records(String bucket) {
+        List<String[]> result = new ArrayList<>();
+        File file = Utils.join(MESSAGES_CWD, bucket);
+        if (file.exists()) {
+            decode(ByteBuffer.wrap(Utils.readContents(file)), result);
+        }
+        for (byte[] record : PENDING.getOrDefault(bucket, List.of())) {
+            decode(ByteBuffer.wrap(record), result);
+        }
+        return result;
+    }
+
+    private static void decode(ByteBuffer buffer, List<String[]> result) {
+        byte[] id = new byte[ID_BYTES];
+        while (buffer.remaining() >= 4) {
+            byte[] key = new byte[buffer.getInt()];
+            buffer.get(key).get(id);
+            result.add(new String[] {new String(key, StandardCharsets.UTF_8),
+                                     Utils.toHex(id)});
+        }
+    }
+
+    private static String messageBucket(String message) {
+        return "m" + Utils.sha1(message).substring(0, 2);
+    }
+
+    private static String tokenBucket(String token) {
+        int end = token.offsetByCodePoints(0, Math.min(2, token.codePointCount(0,
+                                                                              token.length())));
+        return "t" + Utils.toHex(token.substring(0, end).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Returns the buckets that may hold TOKEN, or every token starting
+     *  with it if PREFIX. */
+    private static List<String> tokenBuckets(String token, boolean prefix) {
+        List<String> result = new ArrayList<>();
+        if (!prefix || token.codePointCount(0, token.length()) >= 2) {
+            result.add(tokenBucket(token));
+            return result;
+        }
+        String start = tokenBucket(token);
+        String[] buckets = MESSAGES_CWD.list();
+        if (buckets != null) {
+            for (String bucket : buckets) {
+                if (bucket.startsWith(start)) {
+                    result.add(bucket);
+                }
+            }
+        }
+        for (String bucket : PENDING.keySet()) {
+            if (bucket.startsWith(start) && !result.contains(bucket)) {
+                result.add(bucket);
+            }
+        }
+        return result;
+    }
+}
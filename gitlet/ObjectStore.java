@@ -0,0 +1,712 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+/** The content-addressed object store under .gitlet/objects.  Each distinct
+ *  file content is written exactly once, named by the SHA-1 of its bytes
+ *  and fanned out into subdirectories by the first two hex digits of that
+ *  id, so commits and branches only ever need to hold the id.  Objects are
+ *  kept zlib-deflated on disk; ids are always those of the raw content.
+ *  Files are read and written in BUFFER_SIZE chunks, never whole.  gc
+ *  moves loose objects into Packs; reads look in the packs first.
+ *
+ *  Files of at least RAW_THRESHOLD bytes are the exception: they are kept
+ *  uncompressed and read-only, as <id>.raw loose or as RAW pack entries,
+ *  so that checking one out is a copy within the kernel (or, with the
+ *  gitlet.hardlink property set, a hard link) rather than a trip through
+ *  the heap.
+ *
+ *  Files of at least CHUNK_THRESHOLD bytes are cut into chunks by content
+ *  (see Chunker).  Each chunk is an uncompressed object of its own, and
+ *  the file's id names a chunk list, kept as <id>.chunks loose or as a
+ *  CHUNKED pack entry.  Chunks shared by versions of a file, or by
+ *  different files, are stored once, so a small edit to a huge file
+ *  stores only the chunks around it.
+ */
+class ObjectStore {
+
+    /** Directory holding every stored object. */
+    static final File OBJECTS_CWD = Utils.join(Repository.GITLET_DIR, "objects");
+
+    /** Packs in Pack.PACKS_CWD, or null until they are first needed. */
+    private static List<Pack> packs;
+
+    /** Size of the buffer file contents are streamed through. */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Files at least this large are stored uncompressed; taken from the
+     *  gitlet.rawThreshold property. */
+    static final long RAW_THRESHOLD = Long.getLong("gitlet.rawThreshold", 1L << 20);
+
+    /** Files at least this large are stored in chunks; taken from the
+     *  gitlet.chunkThreshold property. */
+    static final long CHUNK_THRESHOLD = Long.getLong("gitlet.chunkThreshold", 8L << 20);
+
+    /** Whether checkout hard-links uncompressed objects into the working
+     *  tree instead of copying them (the gitlet.hardlink property).  The
+     *  working file then shares the object's read-only inode, so an editor
+     *  that writes in place has to replace it instead. */
+    private static final boolean HARD_LINK = Boolean.getBoolean("gitlet.hardlink");
+
+    /** Source of the raw bytes of an object being stored. */
+    private interface Content {
+        /** Writes the raw bytes to OUT. */
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Stores CONTENTS unless an identical object is already present, and
+     *  returns its id. */
+    static String write(byte[] contents) {
+        return store(out -> out.write(contents));
+    }
+
+    /** Stores the contents of FILE unless an identical object is already
+     *  present, and returns its id.  FILE is read only once. */
+    static String write(File file) {
+        if (file.length() >= CHUNK_THRESHOLD) {
+            return storeChunked(file);
+        }
+        if (file.length() >= RAW_THRESHOLD) {
+            return storeRaw(file);
+        }
+        return store(out -> {
+            try (FileChannel channel = FileChannel.open(file.toPath())) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (channel.read(buffer) != -1) {
+                    out.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+            }
+        });
+    }
+
+    /** Returns the id FILE would be stored under, without storing it. */
+    static String hash(File file) {
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        MessageDigest md = Utils.sha1Digest();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                md.update(buffer.array(), 0, buffer.position());
+                buffer.clear();
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        return Utils.toHex(md.digest());
+    }
+
+    /** Hashes CONTENT while deflating it into a temporary file, then moves
+     *  that file to its final name unless the object already exists.
+     *  Returns the id. */
+    private static String store(Content content) {
+        File temp = null;
+        try {
+            temp = Files.createTempFile(OBJECTS_CWD.toPath(), "tmp", null).toFile();
+            MessageDigest md = Utils.sha1Digest();
+            try (OutputStream out =
+                     new DigestOutputStream(Utils.compressedOutput(temp), md)) {
+                content.writeTo(out);
+            }
+            String id = Utils.toHex(md.digest());
+            File file = objectFile(id);
+            if (!contains(id)) {
+                file.getParentFile().mkdir();
+                try {
+                    Files.move(temp.toPath(), file.toPath(),
+                               StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException excp) {
+                    // Another thread stored the same content first.
+                }
+            }
+            return id;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write object: %s", excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Stores FILE uncompressed, unless an identical object is already
+     *  present, and returns its id.  The copy is made by Files.copy, so the
+     *  contents never pass through the heap. */
+    private static String storeRaw(File file) {
+        String id = hash(file);
+        if (contains(id)) {
+            return id;
+        }
+        File temp = null;
+        try {
+            temp = Files.createTempFile(OBJECTS_CWD.toPath(), "tmp", null).toFile();
+            Files.copy(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            if (!hash(temp).equals(id)) {
+                throw Utils.error("%s changed while being stored.", file.getName());
+            }
+            temp.setReadOnly();
+            File raw = rawFile(id);
+            raw.getParentFile().mkdir();
+            try {
+                Files.move(temp.toPath(), raw.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException excp) {
+                // Another thread stored the same content first.
+            }
+            return id;
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write object: %s", excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Stores FILE as a list of chunks, writing only the chunks that are
+     *  not already present, unless an identical object is already present.
+     *  Returns its id.  FILE is read once, through a buffer of twice the
+     *  largest chunk, and hashed as a whole on the way. */
+    private static String storeChunked(File file) {
+        MessageDigest md = Utils.sha1Digest();
+        List<Chunker.Chunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            ByteBuffer buffer = ByteBuffer.allocate(2 * Chunker.MAX_SIZE);
+            boolean done = false;
+            while (!done || buffer.position() > 0) {
+                while (!done && buffer.hasRemaining()) {
+                    done = channel.read(buffer) == -1;
+                }
+                byte[] data = buffer.array();
+                int start = 0;
+                int end = buffer.position();
+                while (end - start >= Chunker.MAX_SIZE || done && start < end) {
+                    int length = Chunker.cut(data, start, end);
+                    md.update(data, start, length);
+                    chunks.add(new Chunker.Chunk(storeChunk(data, start, length), length));
+                    start += length;
+                }
+                buffer.flip().position(start);
+                buffer.compact();
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write object: %s", excp.getMessage());
+        }
+        String id = Utils.toHex(md.digest());
+        if (!contains(id)) {
+            byte[] list = Chunker.encode(chunks);
+            moveIntoPlace(temp -> Files.write(temp.toPath(), list), chunkFile(id));
+        }
+        return id;
+    }
+
+    /** Stores DATA[START..START+LENGTH) uncompressed and read-only, unless
+     *  an identical object is already present, and returns its id. */
+    private static String storeChunk(byte[] data, int start, int length) {
+        MessageDigest md = Utils.sha1Digest();
+        md.update(data, start, length);
+        String id = Utils.toHex(md.digest());
+        if (!contains(id)) {
+            moveIntoPlace(temp -> {
+                try (OutputStream out = Files.newOutputStream(temp.toPath())) {
+                    out.write(data, start, length);
+                }
+                temp.setReadOnly();
+            }, rawFile(id));
+        }
+        return id;
+    }
+
+    /** Writes a temporary file in OBJECTS_CWD with CONTENT, then moves it
+     *  to TARGET unless another thread got there first. */
+    private static void moveIntoPlace(TempContent content, File target) {
+        File temp = null;
+        try {
+            temp = Files.createTempFile(OBJECTS_CWD.toPath(), "tmp", null).toFile();
+            content.writeTo(temp);
+            target.getParentFile().mkdir();
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException excp) {
+                // Another thread stored the same content first.
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write object: %s", excp.getMessage());
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+        }
+    }
+
+    /** Source of what a temporary file is filled with. */
+    private interface TempContent {
+        void writeTo(File temp) throws IOException;
+    }
+
+    /** Returns the chunks of the object ID, or null if it is not stored
+     *  in chunks. */
+    private static List<Chunker.Chunk> chunks(String id) throws IOException {
+        for (Pack pack : packs()) {
+            long offset = pack.find(id);
+            if (offset != -1) {
+                Pack.Entry entry = pack.entry(offset);
+                if (entry.type != Pack.CHUNKED) {
+                    return null;
+                }
+                byte[] list = new byte[entry.data.remaining()];
+                entry.data.duplicate().get(list);
+                return Chunker.decode(list);
+            }
+        }
+        File file = chunkFile(id);
+        return file.exists() ? Chunker.decode(Files.readAllBytes(file.toPath())) : null;
+    }
+
+    /** Returns a stream of the contents of CHUNKS, opening each chunk only
+     *  when the one before it is used up. */
+    private static InputStream reassemble(List<Chunker.Chunk> chunks) {
+        Iterator<Chunker.Chunk> next = chunks.iterator();
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            @Override
+            public boolean hasMoreElements() {
+                return next.hasNext();
+            }
+
+            @Override
+            public InputStream nextElement() {
+                return open(next.next().id);
+            }
+        });
+    }
+
+    /** Returns the contents of the object named ID. */
+    static byte[] read(String id) {
+        try (InputStream in = open(id)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns a stream of the contents of the object named ID, looking
+     *  in the packs before the loose objects. */
+    static InputStream open(String id) {
+        try {
+            for (Pack pack : packs()) {
+                long offset = pack.find(id);
+                if (offset != -1) {
+                    if (pack.entry(offset).type == Pack.CHUNKED) {
+                        return reassemble(chunks(id));
+                    }
+                    return pack.open(offset);
+                }
+            }
+            File raw = rawFile(id);
+            if (raw.exists()) {
+                return Files.newInputStream(raw.toPath());
+            }
+            File file = objectFile(id);
+            if (!file.exists()) {
+                List<Chunker.Chunk> chunks = chunks(id);
+                if (chunks == null) {
+                    throw Utils.error("No object with id %s.", id);
+                }
+                return reassemble(chunks);
+            }
+            return Utils.compressedInput(file);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Writes the contents of the object named ID to TARGET, replacing
+     *  whatever is there, without holding the whole object in memory. */
+    static void copyTo(String id, File target) {
+        try {
+            if (copyRaw(id, target)) {
+                return;
+            }
+            List<Chunker.Chunk> chunks = objectFile(id).exists() ? null : chunks(id);
+            if (chunks != null) {
+                try (FileChannel out = openForWrite(target)) {
+                    for (Chunker.Chunk chunk : chunks) {
+                        append(chunk.id, out);
+                    }
+                }
+                return;
+            }
+            try (InputStream in = open(id);
+                 OutputStream out = Files.newOutputStream(target.toPath(),
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                in.transferTo(out);
+            }
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Makes TARGET a copy of (or link to) the object ID without reading
+     *  it into the JVM, if it is stored uncompressed.  Returns false, having
+     *  done nothing, if it is not. */
+    private static boolean copyRaw(String id, File target) throws IOException {
+        for (Pack pack : packs()) {
+            long offset = pack.find(id);
+            if (offset != -1) {
+                if (!pack.isRaw(offset)) {
+                    return false;
+                }
+                try (FileChannel out = openForWrite(target)) {
+                    return pack.transferTo(offset, out);
+                }
+            }
+        }
+        File raw = rawFile(id);
+        if (!raw.exists()) {
+            return false;
+        }
+        if (HARD_LINK) {
+            try {
+                Files.deleteIfExists(target.toPath());
+                Files.createLink(target.toPath(), raw.toPath());
+                return true;
+            } catch (IOException | UnsupportedOperationException excp) {
+                // Another file system, say; fall back to copying.
+            }
+        }
+        try (FileChannel in = FileChannel.open(raw.toPath());
+             FileChannel out = openForWrite(target)) {
+            transfer(in, 0, in.size(), out);
+        }
+        return true;
+    }
+
+    /** Appends the contents of the object ID to OUT, within the kernel if
+     *  it is stored uncompressed. */
+    private static void append(String id, FileChannel out) throws IOException {
+        for (Pack pack : packs()) {
+            long offset = pack.find(id);
+            if (offset != -1 && pack.transferTo(offset, out)) {
+                return;
+            }
+        }
+        File raw = rawFile(id);
+        if (raw.exists()) {
+            try (FileChannel in = FileChannel.open(raw.toPath())) {
+                transfer(in, 0, in.size(), out);
+            }
+            return;
+        }
+        try (InputStream in = open(id)) {
+            in.transferTo(Channels.newOutputStream(out));
+        }
+    }
+
+    private static FileChannel openForWrite(File target) throws IOException {
+        return FileChannel.open(target.toPath(), StandardOpenOption.WRITE,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /** Copies the COUNT bytes of IN starting at POSITION to OUT, within
+     *  the kernel where the platform allows. */
+    static void transfer(FileChannel in, long position, long count, FileChannel out)
+        throws IOException {
+        long done = 0;
+        while (done < count) {
+            long sent = in.transferTo(position + done, count - done, out);
+            if (sent <= 0) {
+                throw new IOException("object truncated");
+            }
+            done += sent;
+        }
+    }
+
+    /** Returns true iff an object named ID is stored. */
+    static boolean contains(String id) {
+        for (Pack pack : packs()) {
+            if (pack.find(id) != -1) {
+                return true;
+            }
+        }
+        return objectFile(id).exists() || rawFile(id).exists() || chunkFile(id).exists();
+    }
+
+    /** Returns the packs, opening them on first use. */
+    private static synchronized List<Pack> packs() {
+        if (packs == null) {
+            packs = Pack.all();
+        }
+        return packs;
+    }
+
+    /** Objects larger than this are never deltified. */
+    private static final long DELTA_SIZE_LIMIT = 4L << 20;
+    /** Number of preceding objects each object is tried against as a base. */
+    private static final int DELTA_WINDOW = 10;
+    /** Longest chain of deltas a reader may have to follow. */
+    private static final int MAX_DELTA_DEPTH = 10;
+
+    /** An object being repacked: where it is now and what is known of it. */
+    private static final class Candidate {
+        private final String id;
+        private final Object source;
+        private final long size;
+        private String path = "";
+        private byte[] contents;
+        private long offset;
+        private int depth;
+
+        Candidate(String id, Object source, long size) {
+            this.id = id;
+            this.source = source;
+            this.size = size;
+        }
+    }
+
+    /** Consolidates every loose object and every existing pack into a
+     *  single new pack, then removes what it replaced.  Objects are sorted
+     *  by the path they were committed under (a tree by its directory's),
+     *  found by walking each distinct tree once, and by decreasing size, and
+     *  each is stored as a delta against one of the DELTA_WINDOW objects
+     *  before it when that at least halves it, with chains at most
+     *  MAX_DELTA_DEPTH long.  Uncompressed objects and chunk lists are
+     *  copied as they are.  Every old pack is first checked against its
+     *  SHA-1, so that corruption is reported rather than carried into the
+     *  new pack. */
+    static void gc() {
+        List<Pack> oldPacks = packs();
+        List<File> loose = looseObjects();
+        if (loose.isEmpty() && oldPacks.size() <= 1) {
+            return;
+        }
+        Pack.Writer writer = null;
+        try {
+            TreeMap<String, Candidate> candidates = new TreeMap<>();
+            for (Pack pack : oldPacks) {
+                pack.verify();
+                for (int i = 0; i < pack.size(); i += 1) {
+                    String id = pack.id(i);
+                    long size = pack.entry(pack.offset(i)).size;
+                    candidates.put(id, new Candidate(id, pack, size));
+                }
+            }
+            for (File file : loose) {
+                String id = file.getParentFile().getName()
+                    + file.getName().substring(0, Utils.UID_LENGTH - 2);
+                if (!candidates.containsKey(id)) {
+                    long size;
+                    if (isRaw(file) || isChunks(file)) {
+                        size = file.length();
+                    } else {
+                        try (InputStream in = Utils.compressedInput(file)) {
+                            size = in.transferTo(OutputStream.nullOutputStream());
+                        }
+                    }
+                    candidates.put(id, new Candidate(id, file, size));
+                }
+            }
+            int commits = CommitGraph.size();
+            HashSet<String> seen = new HashSet<>();
+            for (int pos = 0; pos < commits; pos += 1) {
+                String root = Repository.getCommit(CommitGraph.id(pos)).getTree();
+                Tree.walk(root, "", seen, (path, id) -> {
+                    Candidate candidate = candidates.get(id);
+                    if (candidate != null && candidate.path.isEmpty()) {
+                        candidate.path = path;
+                    }
+                });
+            }
+            List<Candidate> order = new ArrayList<>(candidates.values());
+            order.sort((a, b) -> {
+                int cmp = a.path.compareTo(b.path);
+                return cmp != 0 ? cmp : Long.compare(b.size, a.size);
+            });
+            writer = new Pack.Writer(order.size());
+            ArrayDeque<Candidate> window = new ArrayDeque<>();
+            for (Candidate candidate : order) {
+                pack(writer, candidate, window);
+            }
+            File written = writer.finish();
+            writer = null;
+            for (Pack pack : oldPacks) {
+                pack.close();
+                File packFile = pack.getFile();
+                if (!packFile.getName().equals(written.getName().replace(".idx", ".pack"))) {
+                    packFile.delete();
+                    Utils.join(packFile.getParentFile(),
+                               packFile.getName().replace(".pack", ".idx")).delete();
+                }
+            }
+        } catch (IOException excp) {
+            throw Utils.error("Cannot write pack: %s", excp.getMessage());
+        } finally {
+            if (writer != null) {
+                writer.abort();
+            }
+            packs = null;
+        }
+        for (File file : loose) {
+            file.setWritable(true);
+            file.delete();
+            file.getParentFile().delete();
+        }
+    }
+
+    /** Writes CANDIDATE to WRITER, as a delta against the best base in
+     *  WINDOW if there is a good one, and slides the window along. */
+    private static void pack(Pack.Writer writer, Candidate candidate,
+                             ArrayDeque<Candidate> window) throws IOException {
+        int type = storedType(candidate);
+        if (candidate.size > DELTA_SIZE_LIMIT || type == Pack.RAW || type == Pack.CHUNKED) {
+            candidate.offset = copyWhole(writer, candidate);
+            return;
+        }
+        candidate.contents = contents(candidate);
+        Candidate best = null;
+        byte[] bestDelta = null;
+        for (Candidate base : window) {
+            if (base.depth >= MAX_DELTA_DEPTH) {
+                continue;
+            }
+            byte[] delta = Delta.create(base.contents, candidate.contents);
+            if (delta.length < candidate.contents.length / 2
+                && (bestDelta == null || delta.length < bestDelta.length)) {
+                best = base;
+                bestDelta = delta;
+            }
+        }
+        if (best != null) {
+            candidate.depth = best.depth + 1;
+            candidate.offset = writer.addDelta(candidate.id, candidate.size, best.offset,
+                                               Utils.deflate(bestDelta));
+        } else {
+            candidate.offset = copyWhole(writer, candidate);
+        }
+        window.addLast(candidate);
+        if (window.size() > DELTA_WINDOW) {
+            window.removeFirst().contents = null;
+        }
+    }
+
+    /** Writes CANDIDATE to WRITER whole, reusing its stored form (deflated
+     *  or raw) where it already has one.  Returns its offset. */
+    private static long copyWhole(Pack.Writer writer, Candidate candidate) throws IOException {
+        if (candidate.source instanceof File) {
+            File file = (File) candidate.source;
+            try (InputStream in = Files.newInputStream(file.toPath())) {
+                return writer.add(candidate.id, storedType(candidate), candidate.size, in,
+                                  file.length());
+            }
+        }
+        Pack pack = (Pack) candidate.source;
+        Pack.Entry entry = pack.entry(pack.find(candidate.id));
+        if (entry.type != Pack.DELTA) {
+            return writer.add(candidate.id, entry.type, candidate.size,
+                              new Pack.BufferInput(entry.data), entry.data.remaining());
+        }
+        byte[] deflated = Utils.deflate(contents(candidate));
+        return writer.add(candidate.id, Pack.FULL, candidate.size,
+                          new ByteArrayInputStream(deflated), deflated.length);
+    }
+
+    /** Returns the pack entry type CANDIDATE is stored as now: FULL, RAW
+     *  or CHUNKED, or DELTA if it is in a pack as a delta. */
+    private static int storedType(Candidate candidate) throws IOException {
+        if (candidate.source instanceof File) {
+            File file = (File) candidate.source;
+            return isRaw(file) ? Pack.RAW : isChunks(file) ? Pack.CHUNKED : Pack.FULL;
+        }
+        Pack pack = (Pack) candidate.source;
+        return pack.entry(pack.find(candidate.id)).type;
+    }
+
+    /** Returns the contents of CANDIDATE, read from wherever it is now. */
+    private static byte[] contents(Candidate candidate) throws IOException {
+        if (candidate.contents != null) {
+            return candidate.contents;
+        }
+        if (candidate.source instanceof File) {
+            File file = (File) candidate.source;
+            if (isRaw(file)) {
+                return Files.readAllBytes(file.toPath());
+            }
+            try (InputStream in = Utils.compressedInput(file)) {
+                return in.readAllBytes();
+            }
+        }
+        Pack pack = (Pack) candidate.source;
+        return pack.read(pack.find(candidate.id));
+    }
+
+    /** Returns the files of all loose objects. */
+    private static List<File> looseObjects() {
+        List<File> result = new ArrayList<>();
+        File[] dirs = OBJECTS_CWD.listFiles();
+        if (dirs == null) {
+            return result;
+        }
+        for (File dir : dirs) {
+            if (dir.getName().length() != 2 || !dir.isDirectory()) {
+                continue;
+            }
+            File[] files = dir.listFiles();
+            for (File file : files == null ? new File[0] : files) {
+                if (file.getName().length() == Utils.UID_LENGTH - 2 || isRaw(file)
+                    || isChunks(file)) {
+                    result.add(file);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns the file an object named ID is (or would be) stored in. */
+    static File objectFile(String id) {
+        return Utils.join(OBJECTS_CWD, id.substring(0, 2), id.substring(2));
+    }
+
+    /** Returns the file an object named ID is (or would be) stored in
+     *  uncompressed. */
+    static File rawFile(String id) {
+        return Utils.join(OBJECTS_CWD, id.substring(0, 2), id.substring(2) + ".raw");
+    }
+
+    /** Returns the file holding the chunk list of the object ID, if it is
+     *  (or would be) stored loose in chunks. */
+    static File chunkFile(String id) {
+        return Utils.join(OBJECTS_CWD, id.substring(0, 2), id.substring(2) + ".chunks");
+    }
+
+    private static boolean isRaw(File file) {
+        return file.getName().length() == Utils.UID_LENGTH - 2 + 4
+            && file.getName().endsWith(".raw");
+    }
+
+    private static boolean isChunks(File file) {
+        return file.getName().length() == Utils.UID_LENGTH - 2 + 7
+            && file.getName().endsWith(".chunks");
+    }
+}
@@ -0,0 +1,543 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/** A packfile: many objects consolidated into one file by gc, with a
+ *  sorted index beside it so an object is found by binary search and read
+ *  straight out of a memory map.
+ *
+ *  pack-<sha>.pack:
+ *      "PACK" version:int count:int
+ *      entries: type:byte size:varint length:varint [base:varint]
+ *               data:LENGTH bytes
+ *      SHA-1 of everything above:20 bytes
+ *
+ *  pack-<sha>.idx:
+ *      "PIDX" version:int count:int
+ *      fanout: 256 * int       (number of ids whose first byte is <= i)
+ *      ids: count * 20 bytes   (sorted)
+ *      offsets: count * long   (of the entry in the pack)
+ *      CRC32 of everything above:int
+ *
+ *  Opening a pack checks the CRC of its index, and that the pack file
+ *  starts with a matching header and ends with the SHA-1 it is named
+ *  after, so a truncated or mismatched pack is reported rather than read.
+ *  Hashing the whole pack on every command would cost as much as reading
+ *  it, so that is left to verify(), which gc calls before it replaces a
+ *  pack.  An index of version 1 had no CRC; it is trusted until gc
+ *  rewrites it.
+ *
+ *  SIZE is the size of the object.  For a FULL entry DATA is its
+ *  zlib-deflated contents, exactly as a loose object file holds them, so
+ *  objects move between loose files and packs without being
+ *  recompressed.  A RAW entry holds a large object's bytes uncompressed,
+ *  as ObjectStore keeps them, so they can be copied straight from the
+ *  pack file to a working file.  A CHUNKED entry holds the chunk list of
+ *  an object stored in chunks (see Chunker), uncompressed; its SIZE is
+ *  that of the list.  For a DELTA entry DATA is a deflated
+ *  Delta against the object whose entry starts BASE bytes before this
+ *  one.  Objects rebuilt
+ *  from deltas are kept in a small per-pack cache, since the same bases
+ *  are needed again and again when walking history.
+ */
+class Pack {
+
+    /** Directory holding the packs. */
+    static final File PACKS_CWD = Utils.join(ObjectStore.OBJECTS_CWD, "pack");
+
+    /** Entry type of an object stored whole. */
+    static final int FULL = 1;
+    /** Entry type of an object stored as a delta against an earlier entry. */
+    static final int DELTA = 2;
+    /** Entry type of an object stored whole and uncompressed. */
+    static final int RAW = 3;
+    /** Entry type of an object stored as the list of its chunks. */
+    static final int CHUNKED = 4;
+
+    /** Bytes of rebuilt objects each pack keeps around for reuse as bases. */
+    private static final long CACHE_BYTES = 32L << 20;
+
+    private static final byte[] PACK_MAGIC = "PACK".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IDX_MAGIC = "PIDX".getBytes(StandardCharsets.US_ASCII);
+    private static final int PACK_VERSION = 1;
+    private static final int IDX_VERSION = 2;
+    private static final int ID_BYTES = 20;
+    private static final int HEADER = 12;
+    private static final int FANOUT = 256 * 4;
+
+    private final File packFile;
+    private final FileChannel channel;
+    /** The whole pack, or null if it is too large for a single map. */
+    private final MappedByteBuffer packMap;
+    private final MappedByteBuffer idxMap;
+    private final int count;
+    /** Recently rebuilt objects, by entry offset, least recently used first. */
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cached;
+
+    /** Opens the pack whose index is IDXFILE. */
+    Pack(File idxFile) throws IOException {
+        String name = idxFile.getName();
+        packFile = Utils.join(idxFile.getParentFile(),
+                              name.substring(0, name.length() - 4) + ".pack");
+        try (FileChannel idx = FileChannel.open(idxFile.toPath())) {
+            idxMap = idx.map(FileChannel.MapMode.READ_ONLY, 0, idx.size());
+        }
+        byte[] magic = new byte[IDX_MAGIC.length];
+        if (idxMap.limit() < HEADER) {
+            throw Utils.error("Pack index %s is truncated.", name);
+        }
+        idxMap.get(0, magic);
+        int version = idxMap.getInt(4);
+        if (!Arrays.equals(magic, IDX_MAGIC) || version < 1 || version > IDX_VERSION) {
+            throw Utils.error("Unsupported pack index %s.", name);
+        }
+        count = idxMap.getInt(8);
+        long length = HEADER + FANOUT + (long) count * (ID_BYTES + 8);
+        if (count < 0 || idxMap.limit() != length + (version == 1 ? 0 : 4)) {
+            throw Utils.error("Pack index %s is truncated.", name);
+        }
+        if (version > 1) {
+            CRC32 crc = new CRC32();
+            crc.update(idxMap.duplicate().position(0).limit((int) length));
+            if ((int) crc.getValue() != idxMap.getInt((int) length)) {
+                throw Utils.error("Pack index %s is corrupt.", name);
+            }
+        }
+        channel = FileChannel.open(packFile.toPath());
+        packMap = channel.size() <= Integer.MAX_VALUE
+            ? channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()) : null;
+        checkEnds(name.substring(0, name.length() - 4));
+    }
+
+    /** Checks that the pack file starts with a header matching the index
+     *  and ends with the SHA-1 in its name NAME. */
+    private void checkEnds(String name) throws IOException {
+        long size = channel.size();
+        if (size < HEADER + ID_BYTES) {
+            throw Utils.error("Pack %s is truncated.", name);
+        }
+        ByteBuffer header = slice(0, HEADER);
+        byte[] magic = new byte[PACK_MAGIC.length];
+        header.get(magic);
+        if (!Arrays.equals(magic, PACK_MAGIC) || header.getInt() != PACK_VERSION
+            || header.getInt() != count) {
+            throw Utils.error("Pack %s does not match its index.", name);
+        }
+        byte[] trailer = new byte[ID_BYTES];
+        slice(size - ID_BYTES, ID_BYTES).get(trailer);
+        if (!name.equals("pack-" + Utils.toHex(trailer))) {
+            throw Utils.error("Pack %s is truncated or corrupt.", name);
+        }
+    }
+
+    /** Checks the SHA-1 trailer of the pack against all of its contents. */
+    void verify() throws IOException {
+        MessageDigest md = Utils.sha1Digest();
+        long end = channel.size() - ID_BYTES;
+        for (long pos = 0; pos < end; pos += Integer.MAX_VALUE) {
+            md.update(slice(pos, Math.min(Integer.MAX_VALUE, end - pos)));
+        }
+        byte[] trailer = new byte[ID_BYTES];
+        slice(end, ID_BYTES).get(trailer);
+        if (!Arrays.equals(md.digest(), trailer)) {
+            throw Utils.error("Pack %s is corrupt.", packFile.getName());
+        }
+    }
+
+    /** Returns every pack in PACKS_CWD. */
+    static List<Pack> all() {
+        List<Pack> packs = new ArrayList<>();
+        String[] names = PACKS_CWD.list();
+        if (names == null) {
+            return packs;
+        }
+        Arrays.sort(names);
+        for (String name : names) {
+            if (name.endsWith(".idx")) {
+                try {
+                    packs.add(new Pack(Utils.join(PACKS_CWD, name)));
+                } catch (IOException excp) {
+                    throw Utils.error("Cannot read pack %s: %s", name, excp.getMessage());
+                }
+            }
+        }
+        return packs;
+    }
+
+    File getFile() {
+        return packFile;
+    }
+
+    /** Returns the number of objects in this pack. */
+    int size() {
+        return count;
+    }
+
+    /** Returns the id of the I-th object in id order. */
+    String id(int i) {
+        byte[] id = new byte[ID_BYTES];
+        idxMap.get(HEADER + FANOUT + i * ID_BYTES, id);
+        return Utils.toHex(id);
+    }
+
+    /** Returns the pack offset of the I-th object in id order. */
+    long offset(int i) {
+        return idxMap.getLong(HEADER + FANOUT + count * ID_BYTES + i * 8);
+    }
+
+    /** Returns the offset of the entry for the object ID, or -1. */
+    long find(String id) {
+        byte[] key = Utils.fromHex(id);
+        int first = key[0] & 0xff;
+        int lo = first == 0 ? 0 : idxMap.getInt(HEADER + (first - 1) * 4);
+        int hi = idxMap.getInt(HEADER + first * 4);
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compare(mid, key);
+            if (cmp == 0) {
+                return offset(mid);
+            } else if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns a stream of the contents of the object whose entry is at
+     *  OFFSET, inflated straight from the mapped pack. */
+    InputStream open(long offset) throws IOException {
+        Entry entry = entry(offset);
+        if (entry.type == DELTA) {
+            return new ByteArrayInputStream(read(offset));
+        } else if (entry.type == RAW) {
+            return new BufferInput(entry.data);
+        }
+        return new InflaterInputStream(new BufferInput(entry.data));
+    }
+
+    /** Returns true iff the object whose entry is at OFFSET is stored
+     *  RAW, so that transferTo can copy it. */
+    boolean isRaw(long offset) throws IOException {
+        return entry(offset).type == RAW;
+    }
+
+    /** Copies the object whose entry is at OFFSET to TARGET within the
+     *  kernel if it is stored RAW, and returns true; otherwise copies
+     *  nothing and returns false. */
+    boolean transferTo(long offset, FileChannel target) throws IOException {
+        Entry entry = entry(offset);
+        if (entry.type != RAW) {
+            return false;
+        }
+        ObjectStore.transfer(channel, entry.position, entry.size, target);
+        return true;
+    }
+
+    /** Returns the contents of the object whose entry is at OFFSET,
+     *  rebuilding it from its delta chain if need be. */
+    synchronized byte[] read(long offset) throws IOException {
+        byte[] result = cache.get(offset);
+        if (result != null) {
+            return result;
+        }
+        Entry entry = entry(offset);
+        if (entry.size > Integer.MAX_VALUE) {
+            throw Utils.error("Object too large to hold in memory.");
+        }
+        try (InputStream in = entry.type == RAW ? new BufferInput(entry.data)
+                 : new InflaterInputStream(new BufferInput(entry.data))) {
+            result = in.readAllBytes();
+        }
+        if (entry.type == DELTA) {
+            result = Delta.apply(read(entry.base), result);
+        }
+        if (result.length <= CACHE_BYTES / 4) {
+            cache.put(offset, result);
+            cached += result.length;
+            Iterator<byte[]> eldest = cache.values().iterator();
+            while (cached > CACHE_BYTES) {
+                cached -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+        return result;
+    }
+
+    /** Returns the raw entry at OFFSET. */
+    Entry entry(long offset) throws IOException {
+        ByteBuffer head = slice(offset, (int) Math.min(1 + 3 * 10, channel.size() - offset));
+        int type = head.get() & 0xff;
+        long size = readVarint(head);
+        long length = readVarint(head);
+        long base = type == DELTA ? offset - readVarint(head) : -1;
+        long position = offset + head.position();
+        return new Entry(type, size, base, position, slice(position, length));
+    }
+
+    /** The parts of one pack entry. */
+    static final class Entry {
+        final int type;
+        final long size;
+        /** Offset of the base entry of a DELTA, or -1. */
+        final long base;
+        /** Offset of DATA in the pack file. */
+        final long position;
+        /** The stored bytes of the entry. */
+        final ByteBuffer data;
+
+        Entry(int type, long size, long base, long position, ByteBuffer data) {
+            this.type = type;
+            this.size = size;
+            this.base = base;
+            this.position = position;
+            this.data = data;
+        }
+    }
+
+    /** Releases the pack file. */
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /** Returns the LENGTH bytes of the pack starting at OFFSET. */
+    private ByteBuffer slice(long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw Utils.error("Pack entry too large to map.");
+        }
+        if (packMap != null) {
+            return packMap.duplicate().position((int) offset)
+                .limit((int) (offset + length)).slice();
+        }
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    private int compare(int i, byte[] key) {
+        int offset = HEADER + FANOUT + i * ID_BYTES;
+        for (int k = 0; k < ID_BYTES; k += 1) {
+            int cmp = Integer.compare(idxMap.get(offset + k) & 0xff, key[k] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    /** Builds packs entry by entry.  Entries must be added in the order
+     *  they are to appear; finish() writes the index and names both files
+     *  after the pack's checksum. */
+    static class Writer {
+        private final File temp;
+        private final MessageDigest md = Utils.sha1Digest();
+        private final CountingOutput counter;
+        private final DataOutputStream out;
+        private final List<String> ids = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        private final int count;
+
+        /** Starts a pack that will hold COUNT objects. */
+        Writer(int count) throws IOException {
+            PACKS_CWD.mkdirs();
+            this.count = count;
+            temp = Files.createTempFile(PACKS_CWD.toPath(), "tmp", ".pack").toFile();
+            counter = new CountingOutput(new DigestOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temp.toPath()), 1 << 16), md));
+            out = new DataOutputStream(counter);
+            out.write(PACK_MAGIC);
+            out.writeInt(PACK_VERSION);
+            out.writeInt(count);
+        }
+
+        /** Returns the offset the next entry will be written at. */
+        long position() {
+            return counter.written;
+        }
+
+        /** Appends the object ID of SIZE bytes stored whole as TYPE (FULL
+         *  or RAW), whose stored form is read from DATA (LENGTH bytes).
+         *  Returns its offset. */
+        long add(String id, int type, long size, InputStream data, long length)
+            throws IOException {
+            long offset = counter.written;
+            ids.add(id);
+            offsets.add(offset);
+            out.writeByte(type);
+            writeVarint(out, size);
+            writeVarint(out, length);
+            long copied = data.transferTo(out);
+            if (copied != length) {
+                throw Utils.error("Object %s changed while packing.", id);
+            }
+            return offset;
+        }
+
+        /** Appends the object ID of SIZE bytes as the deflated delta DATA
+         *  against the entry at BASE.  Returns its offset. */
+        long addDelta(String id, long size, long base, byte[] data) throws IOException {
+            long offset = counter.written;
+            ids.add(id);
+            offsets.add(offset);
+            out.writeByte(DELTA);
+            writeVarint(out, size);
+            writeVarint(out, data.length);
+            writeVarint(out, offset - base);
+            out.write(data);
+            return offset;
+        }
+
+        /** Writes the trailer and index, and returns the finished pack's
+         *  index file. */
+        File finish() throws IOException {
+            if (ids.size() != count) {
+                throw Utils.error("Pack expected %d objects, got %d.", count, ids.size());
+            }
+            out.flush();
+            byte[] checksum = md.digest();
+            out.write(checksum);
+            out.close();
+            String name = "pack-" + Utils.toHex(checksum);
+            File packFile = Utils.join(PACKS_CWD, name + ".pack");
+            File idxFile = Utils.join(PACKS_CWD, name + ".idx");
+            Integer[] order = new Integer[ids.size()];
+            for (int i = 0; i < order.length; i += 1) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> ids.get(a).compareTo(ids.get(b)));
+            File idxTemp = Utils.join(PACKS_CWD, name + ".idx.tmp");
+            CRC32 crc = new CRC32();
+            try (DataOutputStream idx = new DataOutputStream(new CheckedOutputStream(
+                     new BufferedOutputStream(Files.newOutputStream(idxTemp.toPath())), crc))) {
+                idx.write(IDX_MAGIC);
+                idx.writeInt(IDX_VERSION);
+                idx.writeInt(order.length);
+                int[] fanout = new int[256];
+                for (String id : ids) {
+                    fanout[Integer.parseInt(id.substring(0, 2), 16)] += 1;
+                }
+                int sum = 0;
+                for (int i = 0; i < 256; i += 1) {
+                    sum += fanout[i];
+                    idx.writeInt(sum);
+                }
+                for (Integer i : order) {
+                    idx.write(Utils.fromHex(ids.get(i)));
+                }
+                for (Integer i : order) {
+                    idx.writeLong(offsets.get(i));
+                }
+                idx.writeInt((int) crc.getValue());
+            }
+            Files.move(temp.toPath(), packFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            Files.move(idxTemp.toPath(), idxFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+            return idxFile;
+        }
+
+        /** Throws away an unfinished pack. */
+        void abort() {
+            try {
+                out.close();
+            } catch (IOException excp) {
+                // Nothing more to clean up than the file itself.
+            }
+            temp.delete();
+        }
+    }
+
+    /** Writes V to OUT as an unsigned LEB128 varint. */
+    static void writeVarint(OutputStream out, long v) throws IOException {
+        while ((v & ~0x7fL) != 0) {
+            out.write((int) ((v & 0x7f) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    /** Reads an unsigned LEB128 varint from IN. */
+    static long readVarint(ByteBuffer in) {
+        long result = 0;
+        for (int shift = 0;; shift += 7) {
+            int b = in.get() & 0xff;
+            result |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+    }
+
+    /** An output stream that counts what passes through it. */
+    private static class CountingOutput extends FilterOutputStream {
+        private long written;
+
+        CountingOutput(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written += 1;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+
+    /** An input stream over the remaining bytes of a buffer. */
+    static class BufferInput extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return len == 0 ? 0 : -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/** Branch references, stored the way Git stores them so that a command
+ *  only ever rewrites the refs it actually changed:
+ *
+ *      .gitlet/HEAD                "ref: refs/heads/<branch>"
+ *      .gitlet/refs/heads/<branch> "<commit id>"
+ *      .gitlet/packed-refs         sorted "<commit id> refs/heads/<branch>"
+ *                                  lines, for branches that are rarely
+ *                                  touched
+ *
+ *  A loose ref file overrides a packed entry of the same name; gc moves
+ *  loose refs into packed-refs.  Changes are held in memory and written
+ *  by save() at the end of the command.
+ */
+class Refs {
+
+    static final File HEAD_FILE = Utils.join(Repository.GITLET_DIR, "HEAD");
+    static final File HEADS_CWD = Utils.join(Repository.GITLET_DIR, "refs", "heads");
+    static final File PACKED_FILE = Utils.join(Repository.GITLET_DIR, "packed-refs");
+
+    private static final String PREFIX = "refs/heads/";
+
+    /** Refs read or written during this command, by branch name; a null
+     *  value marks a deleted branch. */
+    private static final TreeMap<String, String> LOADED = new TreeMap<>();
+    /** Branches whose ref has to be written (or deleted) by save(). */
+    private static final TreeSet<String> DIRTY = new TreeSet<>();
+    /** Contents of PACKED_FILE, read on first use. */
+    private static TreeMap<String, String> packed;
+    /** Name of the checked-out branch, once read or changed. */
+    private static String head;
+    private static boolean headDirty;
+
+    /** Returns the name of the checked-out branch. */
+    static String head() {
+        if (head == null) {
+            String ref = Utils.readContentsAsString(HEAD_FILE).trim();
+            head = ref.substring(("ref: " + PREFIX).length());
+        }
+        return head;
+    }
+
+    /** Makes BRANCH the checked-out branch. */
+    static void setHead(String branch) {
+        checkName(branch);
+        if (!branch.equals(head)) {
+            head = branch;
+            headDirty = true;
+        }
+    }
+
+    /** Returns the commit id BRANCH points at, or null if there is no
+     *  such branch, as there is none with an invalid name. */
+    static String read(String branch) {
+        if (!isValidName(branch)) {
+            return null;
+        } else if (LOADED.containsKey(branch)) {
+            return LOADED.get(branch);
+        }
+        File loose = Utils.join(HEADS_CWD, branch);
+        String id = loose.isFile()
+            ? Utils.readContentsAsString(loose).trim() : packed().get(branch);
+        LOADED.put(branch, id);
+        return id;
+    }
+
+    /** Points BRANCH at the commit ID. */
+    static void write(String branch, String id) {
+        checkName(branch);
+        if (!id.equals(read(branch))) {
+            LOADED.put(branch, id);
+            DIRTY.add(branch);
+        }
+    }
+
+    /** Deletes BRANCH. */
+    static void delete(String branch) {
+        checkName(branch);
+        LOADED.put(branch, null);
+        DIRTY.add(branch);
+    }
+
+    /** Returns true iff BRANCH may name a branch: it is not empty, does
+     *  not start with '.', and contains none of "/", "\\", ".." and NUL.
+     *  Its ref file is then always directly inside HEADS_CWD. */
+    static boolean isValidName(String branch) {
+        return !branch.isEmpty() && !branch.startsWith(".") && !branch.contains("..")
+            && branch.indexOf('/') == -1 && branch.indexOf('\\') == -1
+            && branch.indexOf('\0') == -1;
+    }
+
+    /** Throws a GitletException unless BRANCH is a valid branch name. */
+    private static void checkName(String branch) {
+        if (!isValidName(branch)) {
+            throw Utils.error("Not a valid branch name.");
+        }
+    }
+
+    /** Returns the names of all branches, sorted. */
+    static TreeSet<String> branches() {
+        TreeSet<String> result = new TreeSet<>(packed().keySet());
+        collect(HEADS_CWD, "", result);
+        for (Map.Entry<String, String> ref : LOADED.entrySet()) {
+            if (ref.getValue() == null) {
+                result.remove(ref.getKey());
+            } else {
+                result.add(ref.getKey());
+            }
+        }
+        return result;
+    }
+
+    /** Writes the changed refs and HEAD. */
+    static void save() {
+        boolean repack = false;
+        for (String branch : DIRTY) {
+            String id = LOADED.get(branch);
+            File loose = Utils.join(HEADS_CWD, branch);
+            if (id == null) {
+                loose.delete();
+                repack |= packed().remove(branch) != null;
+            } else {
+                loose.getParentFile().mkdirs();
+                writeAtomically(loose, id + "\n");
+            }
+        }
+        DIRTY.clear();
+        if (repack) {
+            writePacked();
+        }
+        if (headDirty) {
+            writeAtomically(HEAD_FILE, "ref: " + PREFIX + head + "\n");
+            headDirty = false;
+        }
+    }
+
+    /** Forgets every change not yet saved, and what was read. */
+    static void discard() {
+        LOADED.clear();
+        DIRTY.clear();
+        packed = null;
+        head = null;
+        headDirty = false;
+    }
+
+    /** Moves every loose ref into packed-refs. */
+    static void pack() {
+        save();
+        TreeSet<String> loose = new TreeSet<>();
+        collect(HEADS_CWD, "", loose);
+        if (loose.isEmpty()) {
+            return;
+        }
+        for (String branch : loose) {
+            packed().put(branch, read(branch));
+        }
+        writePacked();
+        for (String branch : loose) {
+            File file = Utils.join(HEADS_CWD, branch);
+            file.delete();
+            for (File dir = file.getParentFile(); !dir.equals(HEADS_CWD);
+                 dir = dir.getParentFile()) {
+                if (!dir.delete()) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private static TreeMap<String, String> packed() {
+        if (packed == null) {
+            packed = new TreeMap<>();
+            if (PACKED_FILE.isFile()) {
+                for (String line : Utils.readContentsAsString(PACKED_FILE).split("\n")) {
+                    int space = line.indexOf(' ');
+                    if (space > 0 && line.startsWith(PREFIX, space + 1)) {
+                        packed.put(line.substring(space + 1 + PREFIX.length()),
+                                   line.substring(0, space));
+                    }
+                }
+            }
+        }
+        return packed;
+    }
+
+    private static void writePacked() {
+        StringBuilder contents = new StringBuilder();
+        for (Map.Entry<String, String> ref : packed.entrySet()) {
+            contents.append(ref.getValue()).append(' ').append(PREFIX)
+                .append(ref.getKey()).append('\n');
+        }
+        writeAtomically(PACKED_FILE, contents.toString());
+    }
+
+    /** Adds the names of the loose refs under DIR, prefixed by PREFIX. */
+    private static void collect(File dir, String prefix, TreeSet<String> result) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                collect(child, prefix + child.getName() + "/", result);
+            } else if (!child.getName().endsWith(".lock")) {
+                result.add(prefix + child.getName());
+            }
+        }
+    }
+
+    /** Replaces FILE with CONTENTS, so readers never see it half written. */
+    private static void writeAtomically(File file, String contents) {
+        File lock = new File(file.getPath() + ".lock");
+        try {
+            Files.write(lock.toPath(), contents.getBytes(StandardCharsets.UTF_8));
+            Files.move(lock.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                       StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException excp) {
+            lock.delete();
+            throw Utils.error("Cannot write %s: %s", file.getName(), excp.getMessage());
+        }
+    }
+}
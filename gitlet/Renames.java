@@ -0,0 +1,345 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/** Rename and copy detection: pairs paths that disappeared with paths
+ *  that appeared (and, for copies, with paths that were only changed) by
+ *  the similarity of their contents.
+ *
+ *  Files with the same object id are paired first, by hashing.  Every
+ *  other file is reduced to a MinHash sketch of its chunks, cut as in
+ *  Git's diffcore-delta at each newline or after 64 bytes, so text and
+ *  binary files are handled alike.  Repeated chunks count once per
+ *  occurrence.  The sketch's SIGNATURE values are grouped into BANDS; two
+ *  files become candidates only if some band of theirs is identical, so
+ *  the search is one pass over hash buckets instead of a comparison of
+ *  every pair.  Candidates are then scored from their sketches alone.
+ *
+ *  A score is the percentage of the larger file that the two have in
+ *  common, as in Git; pairs below THRESHOLD are not reported.  With bands
+ *  of two values, pairs at the default threshold of 50% share a band
+ *  with probability over 97%.
+ */
+class Renames {
+
+    /** The smallest score, in percent, at which files are paired. */
+    static final int THRESHOLD = Integer.getInteger("gitlet.renameThreshold", 50);
+
+    /** Number of MinHash values in a sketch. */
+    private static final int SIGNATURE = 64;
+
+    /** Number of MinHash values in each LSH band. */
+    private static final int ROWS = 2;
+
+    /** Number of LSH bands. */
+    private static final int BANDS = SIGNATURE / ROWS;
+
+    /** The most files a bucket may hold before it is ignored, as being
+     *  made of chunks too common to say anything.  This bounds the number
+     *  of candidates to linear in the number of files. */
+    private static final int MAX_BUCKET = 64;
+
+    /** The longest chunk, in bytes. */
+    private static final int CHUNK = 64;
+
+    /** Files larger than this many bytes are paired only by id. */
+    private static final long SKETCH_LIMIT = 64 << 20;
+
+    /** Multipliers of the hash functions, one per sketch value. */
+    private static final long[] SEEDS = new long[SIGNATURE];
+
+    static {
+        long seed = 0x9e3779b97f4a7c15L;
+        for (int i = 0; i < SIGNATURE; i += 1) {
+            seed = mix(seed + 0x9e3779b97f4a7c15L);
+            SEEDS[i] = seed | 1;
+        }
+    }
+
+    /** Opens the contents of the file NAME, whose id is ID. */
+    interface Source {
+        InputStream open(String name, String id) throws IOException;
+    }
+
+    /** A source of the contents of one file paired with a target. */
+    static class Pair {
+        /** The path the contents came from. */
+        final String from;
+        /** The path they were found at. */
+        final String to;
+        /** Similarity, in percent. */
+        final int score;
+        /** True if FROM still exists on the target side. */
+        final boolean copy;
+
+        Pair(String from, String to, int score, boolean copy) {
+            this.from = from;
+            this.to = to;
+            this.score = score;
+            this.copy = copy;
+        }
+    }
+
+    /** Returns, by target path, the pairing of each file of ADDED with the
+     *  most similar file of DELETED, or else of KEPT, whose contents are
+     *  read through BEFORE and AFTER.  All three map paths to object ids.
+     *  Each deleted file is renamed at most once, to the most similar
+     *  target; further targets, and those matched with KEPT, are copies.
+     *  KEPT may be empty to look for renames only. */
+    static Map<String, Pair> detect(Map<String, String> deleted, Map<String, String> added,
+                                    Map<String, String> kept, Source before, Source after) {
+        Map<String, Pair> result = new HashMap<>();
+        if (added.isEmpty() || deleted.isEmpty() && kept.isEmpty()) {
+            return result;
+        }
+        HashSet<String> renamed = new HashSet<>();
+        exact(deleted, added, kept, renamed, result);
+
+        List<String> sources = new ArrayList<>();
+        for (String name : deleted.keySet()) {
+            if (!renamed.contains(name)) {
+                sources.add(name);
+            }
+        }
+        sources.addAll(kept.keySet());
+        List<String> targets = new ArrayList<>();
+        for (String name : added.keySet()) {
+            if (!result.containsKey(name)) {
+                targets.add(name);
+            }
+        }
+        if (sources.isEmpty() || targets.isEmpty()) {
+            return result;
+        }
+        Sketch[] from = sketches(sources, name -> before.open(name,
+            deleted.containsKey(name) ? deleted.get(name) : kept.get(name)));
+        Sketch[] to = sketches(targets, name -> after.open(name, added.get(name)));
+
+        List<long[]> scored = new ArrayList<>();
+        for (long pair : candidates(from, to)) {
+            int i = (int) (pair >>> 32);
+            int j = (int) pair;
+            int score = score(from[i], to[j]);
+            if (score >= THRESHOLD) {
+                int otherBase = sameBase(sources.get(i), targets.get(j)) ? 0 : 1;
+                scored.add(new long[] {-score, otherBase, i, j});
+            }
+        }
+        // Best score first, then same base name, then source and target order.
+        scored.sort(Arrays::compare);
+        for (long[] candidate : scored) {
+            String source = sources.get((int) candidate[2]);
+            String target = targets.get((int) candidate[3]);
+            if (result.containsKey(target)) {
+                continue;
+            }
+            boolean copy = kept.containsKey(source) || !renamed.add(source);
+            result.put(target, new Pair(source, target, (int) -candidate[0], copy));
+        }
+        return result;
+    }
+
+    /** Pairs the files of ADDED with files of DELETED, or else of KEPT,
+     *  that have the same id, preferring one with the same base name.
+     *  Records the pairs in RESULT and the renamed files in RENAMED. */
+    private static void exact(Map<String, String> deleted, Map<String, String> added,
+                              Map<String, String> kept, HashSet<String> renamed,
+                              Map<String, Pair> result) {
+        HashMap<String, List<String>> byID = new HashMap<>();
+        for (Map.Entry<String, String> file : deleted.entrySet()) {
+            byID.computeIfAbsent(file.getValue(), id -> new ArrayList<>()).add(file.getKey());
+        }
+        HashMap<String, String> keptByID = new HashMap<>();
+        for (Map.Entry<String, String> file : kept.entrySet()) {
+            keptByID.putIfAbsent(file.getValue(), file.getKey());
+        }
+        for (int pass = 0; pass < 2; pass += 1) {
+            for (Map.Entry<String, String> file : added.entrySet()) {
+                String target = file.getKey();
+                List<String> same = byID.get(file.getValue());
+                if (result.containsKey(target) || same == null) {
+                    continue;
+                }
+                for (String source : same) {
+                    if (!renamed.contains(source) && (pass == 1 || sameBase(source, target))) {
+                        renamed.add(source);
+                        result.put(target, new Pair(source, target, 100, false));
+                        break;
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, String> file : added.entrySet()) {
+            String target = file.getKey();
+            if (result.containsKey(target)) {
+                continue;
+            }
+            List<String> same = byID.get(file.getValue());
+            String source = same != null ? same.get(0) : keptByID.get(file.getValue());
+            if (source != null) {
+                result.put(target, new Pair(source, target, 100, true));
+            }
+        }
+    }
+
+    /** Returns true iff paths A and B have the same last component. */
+    private static boolean sameBase(String a, String b) {
+        return a.substring(a.lastIndexOf('/') + 1).equals(b.substring(b.lastIndexOf('/') + 1));
+    }
+
+    /** Opens the file NAME. */
+    private interface Opener {
+        InputStream open(String name) throws IOException;
+    }
+
+    /** Returns the sketches of the files NAMES, computed in parallel. */
+    private static Sketch[] sketches(List<String> names, Opener opener) {
+        Sketch[] result = new Sketch[names.size()];
+        IntStream.range(0, names.size()).parallel().forEach(i -> {
+            try (InputStream in = opener.open(names.get(i))) {
+                result[i] = new Sketch(in);
+            } catch (IOException excp) {
+                throw Utils.error("Cannot read %s: %s", names.get(i), excp.getMessage());
+            }
+        });
+        return result;
+    }
+
+    /** Returns the pairs (I << 32 | J) such that FROM[I] and TO[J] have an
+     *  identical band, leaving out those that cannot reach THRESHOLD on
+     *  size alone, sorted and without repeats. */
+    private static long[] candidates(Sketch[] from, Sketch[] to) {
+        long[] pairs = new long[16];
+        int count = 0;
+        for (int band = 0; band < BANDS; band += 1) {
+            HashMap<Long, List<Integer>> buckets = new HashMap<>();
+            for (int i = 0; i < from.length; i += 1) {
+                if (from[i].size > 0) {
+                    buckets.computeIfAbsent(from[i].band(band), k -> new ArrayList<>()).add(i);
+                }
+            }
+            HashMap<Long, Integer> filled = new HashMap<>();
+            for (int j = 0; j < to.length; j += 1) {
+                if (to[j].size == 0) {
+                    continue;
+                }
+                long key = to[j].band(band);
+                List<Integer> bucket = buckets.get(key);
+                if (bucket == null || bucket.size() > MAX_BUCKET
+                    || filled.merge(key, 1, Integer::sum) > MAX_BUCKET) {
+                    continue;
+                }
+                for (int i : bucket) {
+                    long small = Math.min(from[i].size, to[j].size);
+                    long large = Math.max(from[i].size, to[j].size);
+                    if (small * 100 >= large * THRESHOLD) {
+                        if (count == pairs.length) {
+                            pairs = Arrays.copyOf(pairs, 2 * count);
+                        }
+                        pairs[count] = (long) i << 32 | j;
+                        count += 1;
+                    }
+                }
+            }
+        }
+        Arrays.sort(pairs, 0, count);
+        return Arrays.stream(pairs, 0, count).distinct().toArray();
+    }
+
+    /** Returns the similarity of A and B in percent: the number of chunks
+     *  they share, estimated from the Jaccard index of their sketches,
+     *  over the number in the larger.  Only identical files, which are
+     *  paired by id instead, score 100. */
+    static int score(Sketch a, Sketch b) {
+        int equal = 0;
+        for (int k = 0; k < SIGNATURE; k += 1) {
+            if (a.values[k] == b.values[k]) {
+                equal += 1;
+            }
+        }
+        double jaccard = (double) equal / SIGNATURE;
+        double shared = jaccard * (a.size + b.size) / (1 + jaccard);
+        return (int) Math.min(99, Math.round(100 * shared / Math.max(a.size, b.size)));
+    }
+
+    /** Returns a well-mixed 64-bit function of X (the finalizer of
+     *  SplitMix64). */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** The MinHash sketch of a file's chunks. */
+    static class Sketch {
+        /** The least hash of any chunk under each hash function. */
+        private final long[] values = new long[SIGNATURE];
+        /** The number of chunks. */
+        private final long size;
+
+        /** The sketch of the contents of IN, read once through a fixed-size
+         *  buffer.  It is empty, and matches nothing, if IN holds more than
+         *  SKETCH_LIMIT bytes. */
+        Sketch(InputStream in) throws IOException {
+            Arrays.fill(values, Long.MAX_VALUE);
+            HashMap<Long, Integer> seen = new HashMap<>();
+            byte[] buffer = new byte[1 << 16];
+            long count = 0;
+            long total = 0;
+            long hash = 0;
+            int length = 0;
+            for (int n = in.read(buffer); n > 0; n = in.read(buffer)) {
+                total += n;
+                if (total > SKETCH_LIMIT) {
+                    size = 0;
+                    return;
+                }
+                for (int i = 0; i < n; i += 1) {
+                    hash = (hash + (buffer[i] & 0xff) + 1) * 0x100000001b3L;
+                    length += 1;
+                    if (buffer[i] == '\n' || length == CHUNK) {
+                        add(hash, seen);
+                        count += 1;
+                        hash = 0;
+                        length = 0;
+                    }
+                }
+            }
+            if (length > 0) {
+                add(hash, seen);
+                count += 1;
+            }
+            size = count;
+        }
+
+        /** Adds the chunk with hash HASH, telling repeats apart by the
+         *  number of times SEEN it before. */
+        private void add(long hash, HashMap<Long, Integer> seen) {
+            int occurrence = seen.merge(hash, 1, Integer::sum);
+            long element = mix(hash + occurrence * 0x9e3779b97f4a7c15L);
+            for (int k = 0; k < SIGNATURE; k += 1) {
+                long value = mix(element * SEEDS[k]);
+                if (value < values[k]) {
+                    values[k] = value;
+                }
+            }
+        }
+
+        /** Returns a hash of the values of band BAND, tagged with BAND. */
+        long band(int band) {
+            long key = band;
+            for (int k = band * ROWS; k < (band + 1) * ROWS; k += 1) {
+                key = mix(key * 31 + values[k]);
+            }
+            return key;
+        }
+    }
+}
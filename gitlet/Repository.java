@@ -1,13 +1,22 @@
 package gitlet;
 
 
-import java.io.Serializable;
+import java.io.BufferedOutputStream;
 import java.io.OutputStream;
+import java.io.Writer;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-
+import java.io.InputStream;
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.HashSet;
 
 import static gitlet.Utils.*;
@@ -18,7 +27,7 @@ import static gitlet.Utils.*;
  *
  * @author Sergio W. Peterson
  */
-public class Repository implements Serializable {
+public class Repository {
     /**
      *
      * List all instance variables of the Repository class here with a useful
@@ -31,225 +40,366 @@ public class Repository implements Serializable {
      */
     public static final File CWD = new File(System.getProperty("user.dir"));
     public static final File GITLET_DIR = join(CWD, ".gitlet");
-    private TreeMap<String, Branch> branches = new TreeMap<>();
-    private Repository currentRep;
+    /** The checked-out branch, read from Refs on first use. */
     private Branch currentBranch;
-    private Commit head;
-    private String branchName;
-    private Commit split;
+    /** Number of chunks left in conflict by the current merge. */
+    private int conflicts;
+    /** Files larger than this are not merged line by line. */
+    private static final int MERGE_LIMIT = 64 << 20;
+    /** Files larger than this are shown by diff as binary, so that the
+     *  memory a diff needs stays small however large the files are.  Taken
+     *  from the gitlet.diffLimit system property. */
+    private static final int DIFF_LIMIT = Integer.getInteger("gitlet.diffLimit", 1 << 20);
+    /** The commits most recently read from Commit.COMMIT_CWD or made, by
+     *  id; at most CACHED_COMMITS of them, since a daemon keeps them
+     *  across commands. */
+    private static final int CACHED_COMMITS = 16384;
+    private static final Map<String, Commit> COMMITS = Utils.lruCache(CACHED_COMMITS);
 
 
-    public Repository() {
-        boolean exits = join(GITLET_DIR, "global").exists();
-        if (exits) {
-            currentRep = getRepository();
-        } else {
-            currentRep = this;
-        }
-    }
-
     public void init() {
         if (setupPersistence()) {
-            System.out.println(
+            throw error(
                     "A Gitlet version-control system already exists in the current directory.");
-            System.exit(0);
         }
-        Branch branch = new Branch("master");
-        currentRep.branches.put("master", branch);
-        currentRep.branchName = branch.getName();
-        currentRep.currentBranch = branch;
-        currentRep.head = branch.getLatestCommit();
-        currentRep.currentBranch.makeCommit();
-        branch.saveBranch();
-        currentRep.saveRepostiroy();
-
+        Refs.setHead("master");
+        currentBranch = new Branch("master");
+        currentBranch.makeCommit();
     }
 
-    public void makeAdd(String file) {
-        File target = join(CWD, file);
-        if (target.exists()) {
-            currentRep.currentBranch.makeAdd(file);
-            currentRep.saveRepostiroy();
-        } else {
-            System.out.println("File does not exist.");
-            System.exit(0);
+    /** Stages every file named by PATHS: files, directories, or glob
+     *  patterns (see WorkingTree.expand).  Nothing is staged unless every
+     *  path names at least one file. */
+    public void makeAdd(String... paths) {
+        TreeSet<String> files = new TreeSet<>();
+        for (String path : paths) {
+            List<String> matched = WorkingTree.expand(path);
+            if (matched.isEmpty()) {
+                throw error("File does not exist.");
+            }
+            files.addAll(matched);
         }
+        current().makeAdd(new ArrayList<>(files));
     }
 
     public void makeCommit(String message) {
         if (message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw error("Please enter a commit message.");
         }
-        currentRep.currentBranch.makeCommit(message);
-        currentRep.head = currentRep.currentBranch.getLatestCommit();
-        currentRep.saveRepostiroy();
+        current().makeCommit(message);
     }
 
     private void mergeCommit(String oldBranch, String oldID) {
-        currentRep.currentBranch.mergeCommit(oldBranch, oldID);
-        currentRep.head = currentRep.currentBranch.getLatestCommit();
-        currentRep.saveRepostiroy();
+        current().mergeCommit(oldBranch, oldID);
     }
 
     public void remove(String file) {
-        currentRep.currentBranch.remove(file);
-        currentRep.saveRepostiroy();
+        current().remove(file);
     }
 
     public void log() {
-        currentRep.currentBranch.log();
+        current().log();
     }
 
     public void globalLog() {
-        File commitFolder = new File(Commit.COMMIT_CWD.getPath());
-        for (File file : commitFolder.listFiles()) {
-            Commit commit = Utils.readObject(file, Commit.class);
-            printlog(commit.getID(), commit.getTime(), commit.getMessage());
-            System.out.println();
+        try {
+            Writer out = Journal.stdout();
+            Journal.printAll(out);
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Cannot read journal: %s", excp.getMessage());
         }
     }
 
     public void find(String message) {
-        currentRep.currentBranch.find(message);
+        current().find(message);
+    }
+
+    public void grep(String query) {
+        current().grep(query);
     }
 
     public void status() {
         System.out.println("=== Branches ===");
-        for (String branch : currentRep.branches.keySet()) {
-            if (branch.equals(currentRep.branchName)) {
+        for (String branch : Refs.branches()) {
+            if (branch.equals(Refs.head())) {
                 System.out.println("*" + branch);
             } else {
                 System.out.println(branch);
             }
         }
         System.out.println();
-        currentRep.currentBranch.printStatus();
+        current().printStatus();
     }
 
     public void checkout(File file) {
-        Branch holder = null;
-        for (String branch : currentRep.branches.keySet()) {
-            if (currentRep.branches.get(branch).hasCommit(currentRep.head.getID())) {
-                holder = currentRep.branches.get(branch);
-            }
-        }
-        if (!(holder == null)) {
-            currentRep.currentBranch = holder;
-            currentRep.currentBranch.checkout(file);
-            currentRep.saveRepostiroy();
-        } else {
-            System.out.println("");
-        }
+        current().checkout(file);
     }
 
     public void checkout(String branch) {
-        if (currentRep.currentBranch.getName().equals(branch)) {
-            System.out.println("No need to checkout the current branch");
-            System.exit(0);
-        } else if (currentRep.branches.containsKey(branch)) {
+        if (Refs.head().equals(branch)) {
+            throw error("No need to checkout the current branch");
+        } else if (Refs.read(branch) != null) {
             setBranch(branch);
-            currentRep.saveRepostiroy();
         } else {
-            System.out.println("No such branch exists");
-            System.exit(0);
+            throw error("No such branch exists");
         }
     }
 
     public void checkout(String id, String name) {
-        currentRep.currentBranch.checkout(id, name);
-        currentRep.saveRepostiroy();
+        current().checkout(id, name);
     }
 
     public void branch(String branch) {
-        if (currentRep.branches.containsKey(branch)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+        if (Refs.read(branch) != null) {
+            throw error("A branch with that name already exists.");
         } else {
-            Branch newBranch = new Branch(branch, currentRep.currentBranch);
-            currentRep.branches.put(branch, newBranch);
-            currentRep.split = newBranch.getLatestCommit();
-            currentRep.saveRepostiroy();
+            new Branch(branch, current());
         }
     }
 
     public void rmBranch(String branch) {
-        if (branch.equals(currentRep.currentBranch.getName())) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
-        } else if (!currentRep.branches.containsKey(branch)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+        if (branch.equals(Refs.head())) {
+            throw error("Cannot remove the current branch.");
+        } else if (Refs.read(branch) == null) {
+            throw error("A branch with that name does not exist.");
         } else {
-            currentRep.branches.remove(branch);
-            currentRep.currentBranch.delete();
-            currentRep.currentBranch = currentRep.branches.get("master");
-            currentRep.saveRepostiroy();
+            new Branch(branch).delete();
         }
     }
 
     public void reset(String id) {
-        for (String branchID : currentRep.branches.keySet()) {
-            Branch branch = currentRep.branches.get(branchID);
-            branch.reset(id);
-        }
-        currentRep.saveRepostiroy();
+        current().reset(id);
     }
 
     public void merge(String branch) {
-        if (currentRep.currentBranch.hasStuff()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
-        } else if (!currentRep.branches.containsKey(branch)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
-        } else if (currentRep.currentBranch.getName().equals(branch)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+        if (current().hasStuff()) {
+            throw error("You have uncommitted changes.");
+        } else if (Refs.read(branch) == null) {
+            throw error("A branch with that name does not exist.");
+        } else if (Refs.head().equals(branch)) {
+            throw error("Cannot merge a branch with itself.");
         } else {
-            Branch otherBranch = currentRep.branches.get(branch);
-            for (File file : CWD.listFiles()) {
-                if (file.getName().equals(".gitlet")
-                        || file.getName().equals("gitlet")) {
+            Branch otherBranch = new Branch(branch);
+            if (untrackedInTheWay(otherBranch.getLatestCommit())) {
+                throw error("There is an untracked file in the way;"
+                        + " delete it, or add and commit it first.");
+            }
+            String givenID = otherBranch.getLatestCommit().getID();
+            int given = CommitGraph.position(givenID);
+            int current = CommitGraph.position(current().getLatestCommit().getID());
+            int base = CommitGraph.mergeBase(current, given);
+            if (base == given) {
+                throw error("Given branch is an ancestor of the current branch.");
+            } else if (base == current) {
+                current().fastForward(otherBranch);
+                System.out.println("Current branch fast-forwarded.");
+            } else {
+                mergeHelper(otherBranch, getCommit(CommitGraph.id(base)));
+                mergeCommit(branch, givenID);
+                if (conflicts > 0) {
+                    System.out.println("Encountered a merge conflict.");
+                }
+            }
+        }
+    }
+
+    public void mergeBase(String first, String second) {
+        int base = CommitGraph.mergeBase(CommitGraph.position(resolveCommit(first)),
+                CommitGraph.position(resolveCommit(second)));
+        if (base != -1) {
+            System.out.println(CommitGraph.id(base));
+        }
+    }
+
+    /** Prints, as a unified diff, the changes from one set of files to
+     *  another, limited to the files under PATHS if there are any:
+     *
+     *      diff                 staging area to working tree
+     *      diff C               commit C to working tree
+     *      diff C1 C2           commit C1 to commit C2
+     *      diff --cached [C]    commit C (default the head) to staging area
+     *
+     *  Files are compared by object id first, so only those that differ
+     *  are read, one at a time; two commits are compared tree by tree,
+     *  skipping the directories they share.  Only tracked or staged working files are
+     *  compared, and those larger than DIFF_LIMIT are reported as binary.
+     *  Unless RENAMES is false, a file that disappeared and one that
+     *  appeared are shown as a rename if their contents are similar
+     *  enough (see Renames); if COPIES, a new file may also be shown as a
+     *  copy of a file that changed. */
+    public void diff(List<String> revisions, boolean cached, List<String> paths,
+                     boolean renames, boolean copies) {
+        List<String> prefixes = new ArrayList<>();
+        for (String path : paths) {
+            String name = WorkingTree.normalize(path);
+            if (name == null) {
+                throw error("%s is outside the repository.", path);
+            }
+            prefixes.add(name);
+        }
+        if (revisions.size() > (cached ? 1 : 2)) {
+            throw error("Incorrect operands");
+        }
+        TreeMap<String, String> before;
+        TreeMap<String, String> after = null;
+        if (cached) {
+            before = revisions.isEmpty() ? current().getLatestCommit().getBlobs()
+                : getCommit(resolveCommit(revisions.get(0))).getBlobs();
+            after = staged();
+        } else if (revisions.isEmpty()) {
+            before = staged();
+        } else if (revisions.size() == 1) {
+            before = getCommit(resolveCommit(revisions.get(0))).getBlobs();
+        } else {
+            before = new TreeMap<>();
+            after = new TreeMap<>();
+            Tree.diff(getCommit(resolveCommit(revisions.get(0))).getTree(),
+                      getCommit(resolveCommit(revisions.get(1))).getTree(), "", before, after);
+        }
+        before = select(before, prefixes);
+        boolean working = after == null;
+        if (working) {
+            TreeSet<String> names = new TreeSet<>(before.keySet());
+            if (revisions.size() == 1) {
+                names.addAll(select(staged(), prefixes).keySet());
+            }
+            after = WorkingTree.ids(new ArrayList<>(names));
+        } else {
+            after = select(after, prefixes);
+        }
+        TreeSet<String> names = new TreeSet<>(before.keySet());
+        names.addAll(after.keySet());
+        Renames.Source afterSource = working
+            ? (name, id) -> Files.newInputStream(join(CWD, name).toPath())
+            : (name, id) -> ObjectStore.open(id);
+        Map<String, Renames.Pair> moved = renames
+            ? detectRenames(before, after, copies, afterSource) : Collections.emptyMap();
+        HashSet<String> renamedAway = new HashSet<>();
+        for (Renames.Pair pair : moved.values()) {
+            if (!pair.copy) {
+                renamedAway.add(pair.from);
+            }
+        }
+        OutputStream out = new BufferedOutputStream(System.out, 1 << 16);
+        try {
+            for (String name : names) {
+                Renames.Pair pair = moved.get(name);
+                String oldPath = pair == null ? name : pair.from;
+                String oldID = before.get(oldPath);
+                String newID = after.get(name);
+                if (renamedAway.contains(name)
+                        || pair == null && oldID != null && oldID.equals(newID)) {
                     continue;
                 }
-                Blob blob = new Blob(file.getName());
-                if (!otherBranch.getLatestCommit().hasBlob(blob.getID())
-                        && !currentRep.currentBranch.tracked(blob.getID())) {
-                    System.out.println("There is an untracked file in the way;"
-                            + " delete it, or add and commit it first.");
-                    System.exit(0);
-                    return;
+                String oldName = oldID == null ? "/dev/null" : "a/" + oldPath;
+                String newName = newID == null ? "/dev/null" : "b/" + name;
+                out.write(Diff.bytes("diff --git a/" + oldPath + " b/" + name + "\n"));
+                if (pair != null) {
+                    String kind = pair.copy ? "copy" : "rename";
+                    out.write(Diff.bytes("similarity index " + pair.score + "%\n"
+                            + kind + " from " + pair.from + "\n" + kind + " to " + name + "\n"));
+                    if (oldID.equals(newID)) {
+                        continue;
+                    }
                 }
+                byte[] oldText = oldID == null ? new byte[0]
+                    : readText(ObjectStore.open(oldID), DIFF_LIMIT);
+                byte[] newText = newID == null ? new byte[0]
+                    : readText(afterSource.open(name, newID), DIFF_LIMIT);
+                if (oldText == null || newText == null) {
+                    out.write(Diff.bytes("Binary files " + oldName + " and " + newName
+                            + " differ\n"));
+                    continue;
+                }
+                out.write(Diff.bytes("--- " + oldName + "\n+++ " + newName + "\n"));
+                Diff.unified(Diff.lines(oldText), Diff.lines(newText), out);
             }
-            mergeHelper(otherBranch, currentRep.split);
-            mergeCommit(branch, currentRep.branches.get(branch).getLatestCommit().getID());
+            out.flush();
+        } catch (IOException excp) {
+            throw error("Cannot compare files: %s", excp.getMessage());
+        }
+    }
 
+    /** Returns, by new name, the files of AFTER that were renamed from, or
+     *  if COPIES copied from, files of BEFORE.  The contents of the files
+     *  of AFTER are read through SOURCE. */
+    private static Map<String, Renames.Pair> detectRenames(TreeMap<String, String> before,
+                                                           TreeMap<String, String> after,
+                                                           boolean copies,
+                                                           Renames.Source source) {
+        TreeMap<String, String> changed = new TreeMap<>();
+        if (copies) {
+            for (Map.Entry<String, String> file : before.entrySet()) {
+                String id = after.get(file.getKey());
+                if (id != null && !id.equals(file.getValue())) {
+                    changed.put(file.getKey(), file.getValue());
+                }
+            }
+        }
+        return Renames.detect(whatAhasbutBdoesnt(before, after),
+                              whatAhasbutBdoesnt(after, before), changed,
+                              (name, id) -> ObjectStore.open(id), source);
+    }
+
+    /** Returns what the next commit would contain: the head commit's
+     *  files with the staging area applied. */
+    private TreeMap<String, String> staged() {
+        TreeMap<String, String> files = new TreeMap<>(current().getLatestCommit().getBlobs());
+        files.keySet().removeAll(Stage.removed().keySet());
+        files.putAll(Stage.added());
+        return files;
+    }
+
+    /** Returns the entries of FILES at or under one of PREFIXES, or all of
+     *  them if there are no PREFIXES. */
+    private static TreeMap<String, String> select(TreeMap<String, String> files,
+                                                  List<String> prefixes) {
+        if (prefixes.isEmpty() || prefixes.contains("")) {
+            return files;
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        for (String prefix : prefixes) {
+            result.putAll(files.subMap(prefix, true, prefix + "/\uffff", true));
+        }
+        result.keySet().removeIf(name -> prefixes.stream().noneMatch(
+            prefix -> name.equals(prefix) || name.startsWith(prefix + "/")));
+        return result;
+    }
+
+    /** Returns the id of the head of branch NAME, or else of the commit
+     *  whose id NAME abbreviates. */
+    private String resolveCommit(String name) {
+        String head = Refs.read(name);
+        if (head != null) {
+            return head;
+        }
+        String id = CommitGraph.resolve(name);
+        if (id == null) {
+            throw error("No commit with that id exists.");
         }
-        currentRep.saveRepostiroy();
+        return id;
+    }
+
+    public void gc() {
+        Commit.upgradeAll();
+        CommitGraph.compact();
+        ObjectStore.gc();
+        Refs.pack();
     }
 
     public void test() {
         System.out.println("\nBranches Currently Present in your gitlet: ");
-        for (String branchID : currentRep.branches.keySet()) {
-            Branch branch = currentRep.branches.get(branchID);
-            if (currentRep.currentBranch.getName().equals(branch.getName())) {
-                System.out.println("Current Branch - " + branch.getName());
+        for (String branch : Refs.branches()) {
+            if (Refs.head().equals(branch)) {
+                System.out.println("Current Branch - " + branch);
             } else {
-                System.out.println(branch.getName());
+                System.out.println(branch);
             }
         }
         System.out.println();
-        for (String branchID : currentRep.branches.keySet()) {
-            Branch branch = currentRep.branches.get(branchID);
-            System.out.println("In " + branch.getName() + " Branch :");
-            branch.test();
-        }
-        System.out.println("-----------------------------------------------------------------");
-        System.out.println("Current Latest Split Point");
-        System.out.println("Name : " + currentRep.split.getMessage() + " with ID :"
-                + currentRep.split.getID());
-        System.out.println("-----------------------------------------------------------------");
+        System.out.println("In " + Refs.head() + " Branch :");
+        current().test();
     }
 
     private boolean setupPersistence() {
@@ -258,59 +408,98 @@ public class Repository implements Serializable {
         }
         GITLET_DIR.mkdir();
         Commit.COMMIT_CWD.mkdir();
-        Branch.BRANCHES_CWD.mkdir();
+        Refs.HEADS_CWD.mkdirs();
+        ObjectStore.OBJECTS_CWD.mkdir();
         return false;
     }
 
-    private void printlog(String shar, String date, String message) {
-        System.out.println("===");
-        System.out.println("commit " + shar);
-        System.out.println("Date: " + date);
-        System.out.println(message);
+    /** Returns the commit named ID, reading it from Commit.COMMIT_CWD
+     *  unless it is still in COMMITS. */
+    static Commit getCommit(String id) {
+        Commit commit = COMMITS.get(id);
+        if (commit == null) {
+            commit = Commit.read(join(Commit.COMMIT_CWD, id));
+            COMMITS.put(id, commit);
+        }
+        return commit;
+    }
+
+    /** Records a freshly created COMMIT so later lookups skip the disk. */
+    static void cacheCommit(Commit commit) {
+        COMMITS.put(commit.getID(), commit);
     }
 
-    private void saveRepostiroy() {
-        File rep = Utils.join(GITLET_DIR, "global");
-        Utils.writeObject(rep, this);
+    /** Writes out everything this command changed.  Refs go last, so a
+     *  branch never points at a commit the indexes do not know yet. */
+    static void flush() {
+        Index.save();
+        CommitGraph.save();
+        MessageIndex.save();
+        Journal.save();
+        Stage.save();
+        Refs.save();
     }
 
-    private Repository getRepository() {
-        File rep = Utils.join(GITLET_DIR, "global");
-        return readObject(rep, Repository.class);
+    /** Drops the unsaved changes of a command that failed, as exiting
+     *  without flush() would.  The rest of what is held in memory only
+     *  caches what is on disk, and stays valid. */
+    static void discard() {
+        Stage.discard();
+        Refs.discard();
+    }
+
+    /** Returns the checked-out branch. */
+    private Branch current() {
+        if (currentBranch == null) {
+            currentBranch = new Branch(Refs.head());
+        }
+        return currentBranch;
     }
 
     private void setBranch(String branch) {
-        Branch newbranch = currentRep.branches.get(branch);
-        for (File file : CWD.listFiles()) {
-            if (file.getName().equals(".gitlet")
-                    || file.getName().equals("gitlet")) {
-                continue;
-            }
-            Blob blob = new Blob(file.getName());
-            if (!newbranch.getLatestCommit().hasBlob(blob.getID())
-                    && !currentRep.currentBranch.tracked(blob.getID())) {
-                System.out.println("There is an untracked file in the way; "
-                        + "delete it, or add and commit it first.");
-                System.exit(0);
-                return;
+        Branch newbranch = new Branch(branch);
+        if (untrackedInTheWay(newbranch.getLatestCommit())) {
+            throw error("There is an untracked file in the way; "
+                    + "delete it, or add and commit it first.");
+        }
+        Commit from = current().getLatestCommit();
+        currentBranch = newbranch;
+        Refs.setHead(branch);
+        Stage.clear();
+        currentBranch.setFiles(from);
+    }
+
+    /** Returns true iff some working file matches neither the current head
+     *  nor TARGET, and so would be lost by moving to TARGET. */
+    private boolean untrackedInTheWay(Commit target) {
+        TreeMap<String, String> present = WorkingTree.ids();
+        for (String file : present.keySet()) {
+            String id = present.get(file);
+            if (!target.hasBlob(file, id)
+                    && !current().tracked(file, id)) {
+                return true;
             }
         }
-        currentRep.currentBranch = newbranch;
-        currentRep.branchName = branch;
-        currentRep.head = newbranch.getLatestCommit();
-        currentRep.currentBranch.setFiles();
+        return false;
     }
 
     private void mergeHelper(Branch givenBranch, Commit splitpoint) {
-        HashSet<String> allBlobs = getAll(givenBranch.getLatestCommit(),
-                splitpoint, currentRep.currentBranch.getLatestCommit());
         Commit givenCommit = givenBranch.getLatestCommit();
-        Commit currentCommit = currentRep.currentBranch.getLatestCommit();
-
-        //Makes a hash map of the <File name, Blob ID> for all the blobs in the latest commit;
-        TreeMap<String, String> givenBlobs = getNames(givenCommit);
-        TreeMap<String, String> currentBlobs = getNames(currentCommit);
-        TreeMap<String, String> splitBlobs = getNames(currentRep.split);
+        Commit currentCommit = current().getLatestCommit();
+
+        //The <File name, Blob ID> maps of the three commits, with renames followed.
+        //Only paths changed on either side since the split point are listed;
+        //every other file is the same in all three, and stays as it is.
+        TreeSet<String> changed = new TreeSet<>();
+        changed.addAll(changedPaths(splitpoint, currentCommit));
+        changed.addAll(changedPaths(splitpoint, givenCommit));
+        TreeMap<String, String> givenBlobs = Tree.select(givenCommit.getTree(), changed);
+        TreeMap<String, String> currentBlobs = Tree.select(currentCommit.getTree(), changed);
+        TreeMap<String, String> splitBlobs = Tree.select(splitpoint.getTree(), changed);
+        List<String> renamedAway = followRenames(splitBlobs, currentBlobs, givenBlobs);
+        for (String file : renamedAway) {
+            remove(file);
+        }
         TreeMap<String, String> newInCurrent = whatAhasbutBdoesnt(currentBlobs, splitBlobs);
         TreeMap<String, String> newInGiven = whatAhasbutBdoesnt(givenBlobs, splitBlobs);
 
@@ -325,14 +514,14 @@ public class Repository implements Serializable {
                         && !splitBlobs.get(file).equals(givenBlobs.get(file))) {
 
                     // Use the file from given branch
-                    mergeAdd(givenCommit.getBlobs().get(givenBlobs.get(file)), givenCommit);
+                    mergeAdd(file, givenBlobs.get(file));
 
                     //Changed in the current branch but not in the given branch
                 } else if (!splitBlobs.get(file).equals(currentBlobs.get(file))
                         && splitBlobs.get(file).equals(givenBlobs.get(file))) {
 
                     // Use the file from current branch
-                    mergeAdd(currentCommit.getBlobs().get(currentBlobs.get(file)), givenCommit);
+                    mergeAdd(file, currentBlobs.get(file));
 
                     //If it was changed in both the given and the current branch to the same thing
                 } else if (!splitBlobs.get(file).equals(currentBlobs.get(file))
@@ -340,7 +529,7 @@ public class Repository implements Serializable {
                         && currentBlobs.get(file).equals(givenBlobs.get(file))) {
 
                     // Use the file from current branch
-                    mergeAdd(currentCommit.getBlobs().get(currentBlobs.get(file)), givenCommit);
+                    mergeAdd(file, currentBlobs.get(file));
 
                     //If it was changed in both given and current branch to diffrent things
                 } else if (!splitBlobs.get(file).equals(currentBlobs.get(file))
@@ -348,8 +537,12 @@ public class Repository implements Serializable {
                         && !currentBlobs.get(file).equals(givenBlobs.get(file))) {
 
                     //Merge Conflict for the two files
-                    mergerConflict(currentCommit.getBlobs().get(currentBlobs.get(file)),
-                            givenCommit.getBlobs().get(givenBlobs.get(file)));
+                    mergerConflict(file, splitBlobs.get(file), currentBlobs.get(file),
+                            givenBlobs.get(file));
+
+                    //Unchanged, but maybe moved here by a rename in the given branch
+                } else {
+                    mergeAdd(file, currentBlobs.get(file));
                 }
 
                 // If the file is in the current commit but not in the given commit
@@ -365,36 +558,87 @@ public class Repository implements Serializable {
         }
         for (String file : newInCurrent.keySet()) {
             if (!newInGiven.containsKey(file)) {
-                mergeAdd(currentCommit.getBlobs().get(currentBlobs.get(file)), currentCommit);
+                mergeAdd(file, currentBlobs.get(file));
             }
         }
         for (String file : newInGiven.keySet()) {
             if (!newInCurrent.containsKey(file)) {
-                mergeAdd(givenCommit.getBlobs().get(givenBlobs.get(file)), givenCommit);
+                mergeAdd(file, givenBlobs.get(file));
             }
         }
     }
 
-    private void mergeAdd(Blob file, Commit other) {
-        //Blob we want to add to the current new branch
-        TreeMap<String, Blob> otherBlobs = other.getBlobs();
-        TreeMap<String, Blob> currentBlobs = currentRep.currentBranch.getLatestCommit().getBlobs();
-        //If the file is already in the currents commit
-        if (currentBlobs.containsKey(file.getID())) {
-            return;
-            // If the file is not in the current commit but is in the other commit
-        } else if (!currentBlobs.containsKey(file.getID())
-                && otherBlobs.containsKey(file.getID())) {
+    /** Returns the paths of the files that differ between commits A and B,
+     *  found by comparing their trees. */
+    private static TreeSet<String> changedPaths(Commit a, Commit b) {
+        TreeMap<String, String> before = new TreeMap<>();
+        TreeMap<String, String> after = new TreeMap<>();
+        Tree.diff(a.getTree(), b.getTree(), "", before, after);
+        TreeSet<String> paths = new TreeSet<>(before.keySet());
+        paths.addAll(after.keySet());
+        return paths;
+    }
 
-            //Return the file from the other commit
-            checkout(other.getID(), file.getName());
-        } else {
-            return;
+    /** Makes the object ID the merged version of file NAME, writing and
+     *  staging it unless the current commit already has it. */
+    private void mergeAdd(String name, String id) {
+        if (!current().getLatestCommit().hasBlob(name, id)) {
+            WorkingTree.restore(name, id);
+            current().makeAdd(name);
+        }
+    }
+
+    /** Follows the renames each side made since the split point, so that
+     *  a file renamed on one branch and edited on the other is merged
+     *  under its new name.  SPLIT, CURRENT and GIVEN are the three file
+     *  maps; the entries of a renamed file are moved to its new name in
+     *  SPLIT and in the branch that kept the old one.  Returns the old
+     *  names the current branch must give up.  Files renamed on both
+     *  sides, or renamed on one and deleted on the other, are left under
+     *  their names. */
+    private static List<String> followRenames(TreeMap<String, String> split,
+                                              TreeMap<String, String> current,
+                                              TreeMap<String, String> given) {
+        Map<String, Renames.Pair> inCurrent = renames(split, current);
+        Map<String, Renames.Pair> inGiven = renames(split, given);
+        HashSet<String> movedInCurrent = new HashSet<>();
+        for (Renames.Pair pair : inCurrent.values()) {
+            movedInCurrent.add(pair.from);
+        }
+        HashSet<String> movedInGiven = new HashSet<>();
+        for (Renames.Pair pair : inGiven.values()) {
+            movedInGiven.add(pair.from);
+        }
+        List<String> renamedAway = new ArrayList<>();
+        for (Renames.Pair pair : new TreeMap<>(inGiven).values()) {
+            if (current.containsKey(pair.from) && !current.containsKey(pair.to)
+                    && !movedInCurrent.contains(pair.from)) {
+                split.put(pair.to, split.remove(pair.from));
+                current.put(pair.to, current.remove(pair.from));
+                renamedAway.add(pair.from);
+            }
+        }
+        for (Renames.Pair pair : new TreeMap<>(inCurrent).values()) {
+            if (given.containsKey(pair.from) && !given.containsKey(pair.to)
+                    && !movedInGiven.contains(pair.from)) {
+                split.put(pair.to, split.remove(pair.from));
+                given.put(pair.to, given.remove(pair.from));
+            }
         }
+        return renamedAway;
     }
 
+    /** Returns the renames from the files of BEFORE to those of AFTER,
+     *  both committed, by new name. */
+    private static Map<String, Renames.Pair> renames(TreeMap<String, String> before,
+                                                     TreeMap<String, String> after) {
+        return Renames.detect(whatAhasbutBdoesnt(before, after),
+                              whatAhasbutBdoesnt(after, before), Collections.emptyMap(),
+                              (name, id) -> ObjectStore.open(id),
+                              (name, id) -> ObjectStore.open(id));
+    }
 
-    private TreeMap<String, String> whatAhasbutBdoesnt(TreeMap<String, String> commit1,
+    private static TreeMap<String, String> whatAhasbutBdoesnt(TreeMap<String, String> commit1,
                                                        TreeMap<String, String> commit2) {
         TreeMap<String, String> holder = new TreeMap<>();
         for (String file : commit1.keySet()) {
@@ -405,50 +649,86 @@ public class Repository implements Serializable {
         return holder;
     }
 
-    private TreeMap<String, String> getNames(Commit commit) {
-        TreeMap<String, String> holder = new TreeMap<>();
-        TreeMap<String, Blob> old = commit.getBlobs();
-        for (String blob : old.keySet()) {
-            holder.put(old.get(blob).getName(), blob);
-        }
-        return holder;
-    }
-
-    private HashSet<String> getAll(Commit a, Commit b, Commit c) {
-        HashSet<String> allNames = new HashSet<>();
-        TreeMap<String, String> filesA = new TreeMap<>(getNames(a));
-        TreeMap<String, String> filesB = new TreeMap<>(getNames(b));
-        TreeMap<String, String> filesC = new TreeMap<>(getNames(c));
-        allNames.addAll(filesA.keySet());
-        allNames.addAll(filesB.keySet());
-        allNames.addAll(filesC.keySet());
-        return allNames;
-    }
-
-
-    private void mergerConflict(Blob current, Blob given) {
-        try {
-            File conflicFile = new File(CWD, current.getName());
+    /** Merges the versions CURRENT and GIVEN of file NAME, both changed
+     *  from version BASE, line by line (see Diff3), and stages the result.
+     *  Binary or very large files are instead written whole, between
+     *  conflict markers. */
+    private void mergerConflict(String name, String base, String current, String given) {
+        File conflicFile = new File(CWD, name);
+        conflicFile.getParentFile().mkdirs();
+        byte[] baseText = readForMerge(base);
+        byte[] currentText = readForMerge(current);
+        byte[] givenText = readForMerge(given);
+        if (baseText != null && currentText != null && givenText != null) {
             conflicFile.delete();
-            OutputStream os = new FileOutputStream(conflicFile, true);
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(conflicFile))) {
+                conflicts += Diff3.merge(Diff.lines(baseText), Diff.lines(currentText),
+                        Diff.lines(givenText), os);
+            } catch (IOException e) {
+                throw error("Cannot write %s: %s", name, e.getMessage());
+            }
+            current().makeAdd(name);
+            return;
+        }
+        conflicts += 1;
+        conflicFile.delete();
+        try (OutputStream os = new FileOutputStream(conflicFile, true);
+             InputStream currentFile = ObjectStore.open(current);
+             InputStream givenFile = ObjectStore.open(given)) {
             String headText = "<<<<<<< HEAD\n";
             String divider = "\n=======\n";
             String endText = "\n>>>>>>>";
             os.write(headText.getBytes(), 0, headText.length());
-            os.write(current.getFile(), 0, current.getFile().length);
+            currentFile.transferTo(os);
             os.write(divider.getBytes(), 0, divider.length());
-            os.write(given.getFile(), 0, given.getFile().length);
+            givenFile.transferTo(os);
             os.write(endText.getBytes(), 0, endText.length());
         } catch (IOException e) {
             e.printStackTrace();
         }
+        current().makeAdd(name);
+    }
+
+    /** Returns the contents of the object ID, or null if it is binary or
+     *  larger than MERGE_LIMIT. */
+    private byte[] readForMerge(String id) {
+        try {
+            return readText(ObjectStore.open(id), MERGE_LIMIT);
+        } catch (IOException excp) {
+            throw error("Cannot read object %s: %s", id, excp.getMessage());
+        }
+    }
+
+    /** Returns the contents of IN, which it closes, or null if they are
+     *  binary or larger than LIMIT bytes.  Binary contents are recognized
+     *  from their start, without reading the rest. */
+    private static byte[] readText(InputStream in, int limit) throws IOException {
+        try (in) {
+            byte[] head = in.readNBytes(8000);
+            if (Diff.isBinary(head)) {
+                return null;
+            }
+            if (head.length > limit) {
+                return null;
+            }
+            byte[] rest = in.readNBytes(limit + 1 - head.length);
+            if (head.length + rest.length > limit) {
+                return null;
+            }
+            byte[] contents = Arrays.copyOf(head, head.length + rest.length);
+            System.arraycopy(rest, 0, contents, head.length, rest.length);
+            return contents;
+        }
     }
 
     public boolean checkIfInitialized() {
         if (!GITLET_DIR.exists()) {
-            System.out.println("Not in an initialized Gitlet directory.");
-            System.exit(0);
-            return false;
+            throw error("Not in an initialized Gitlet directory.");
+        }
+        if (Upgrade.needed()) {
+            Upgrade.run();
+        } else if (!Refs.HEAD_FILE.isFile()) {
+            throw error("Not a valid Gitlet repository: .gitlet/HEAD is missing.");
         }
         return true;
     }
@@ -1,13 +1,108 @@
 package gitlet;
 
 import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.TreeMap;
 
-public class Stage {
+/** The staging area.  There is one per repository, kept in its own small
+ *  file so that staging a file never rewrites any branch.  It is read on
+ *  first use and written back by save() only if it changed. */
+public class Stage implements Serializable {
+    /** Kept from the last Java-serialized version, so a staging area
+     *  written that way can still be read (see Codec.isLegacy). */
+    private static final long serialVersionUID = -1911194704903815272L;
 
+    /** Header and current version of the encoding of SRAGE_CWD. */
+    private static final byte[] MAGIC = "GSTG".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
     static final File SRAGE_CWD = Utils.join(Repository.GITLET_DIR, "stages");
 
+    /** File name to blob id of everything staged for addition. */
+    private TreeMap<String, String> stageAdd = new TreeMap<>();
+    /** File name to blob id of everything staged for removal. */
+    private TreeMap<String, String> stageRemove = new TreeMap<>();
+
+    private static Stage current;
+    private static boolean dirty;
+
     public static void addFile(Blob file) {
+        addFile(file.getName(), file.getID());
+    }
+
+    /** Stages blob ID as the content of the file NAME. */
+    static void addFile(String name, String id) {
+        get().stageAdd.put(name, id);
+        dirty = true;
+    }
+
+    /** Stages the file NAME, tracked as blob ID, for removal. */
+    static void removeFile(String name, String id) {
+        get().stageRemove.put(name, id);
+        dirty = true;
+    }
+
+    /** Unstages NAME, whether it was staged for addition or removal. */
+    static void unstage(String name) {
+        Stage stage = get();
+        if (stage.stageAdd.remove(name) != null | stage.stageRemove.remove(name) != null) {
+            dirty = true;
+        }
+    }
+
+    /** Returns the files staged for addition, by name. */
+    static TreeMap<String, String> added() {
+        return get().stageAdd;
+    }
+
+    /** Returns the files staged for removal, by name. */
+    static TreeMap<String, String> removed() {
+        return get().stageRemove;
+    }
+
+    static boolean isEmpty() {
+        return added().isEmpty() && removed().isEmpty();
+    }
 
+    static void clear() {
+        if (!isEmpty()) {
+            current = new Stage();
+            dirty = true;
+        }
     }
 
+    /** Writes the staging area back if it changed. */
+    static void save() {
+        if (dirty) {
+            Utils.writeCompressed(SRAGE_CWD, new Codec.Encoder(MAGIC, VERSION)
+                .writeFiles(current.stageAdd)
+                .writeFiles(current.stageRemove)
+                .finish());
+            dirty = false;
+        }
+    }
+
+    /** Forgets any change not yet saved. */
+    static void discard() {
+        current = null;
+        dirty = false;
+    }
+
+    private static Stage get() {
+        if (current == null) {
+            current = new Stage();
+            if (SRAGE_CWD.isFile()) {
+                byte[] data = Utils.readCompressed(SRAGE_CWD);
+                if (Codec.isLegacy(data)) {
+                    current = Codec.readLegacy(data, Stage.class);
+                    dirty = true;
+                } else {
+                    Codec.Decoder in = new Codec.Decoder(data, MAGIC, VERSION);
+                    current.stageAdd = in.readFiles();
+                    current.stageRemove = in.readFiles();
+                }
+            }
+        }
+        return current;
+    }
 }
@@ -0,0 +1,195 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+/** The directories of a commit.  A tree is one directory: it maps the name
+ *  of each file directly inside it to the file's blob id, and the name of
+ *  each subdirectory, with a '/' appended, to that subdirectory's tree id.
+ *  Trees are Codec records stored in the ObjectStore like file contents,
+ *  named by the SHA-1 of their encoding, so equal directories share one
+ *  tree.  A directory with no files has no tree; its id is null.
+ *
+ *  A commit records only the id of its root tree.  Making a commit
+ *  rewrites just the trees on the paths of the files it changes, and every
+ *  other directory is shared with its parent by id; comparing two commits
+ *  descends only into subtrees whose ids differ.
+ */
+class Tree {
+
+    /** Header and current version of the encoding of trees. */
+    private static final byte[] MAGIC = "GTRE".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+
+    /** The entries of the trees most recently read or written, by id.
+     *  Trees never change, so they can be kept across the commands a
+     *  daemon runs; only the most recent CACHED_TREES are. */
+    private static final int CACHED_TREES = 4096;
+    private static final Map<String, TreeMap<String, String>> TREES =
+        Utils.lruCache(CACHED_TREES);
+
+    /** Returns the entries of the tree ID, which must not be modified, or
+     *  an empty map if ID is null. */
+    static TreeMap<String, String> entries(String id) {
+        if (id == null) {
+            return new TreeMap<>();
+        }
+        TreeMap<String, String> entries = TREES.get(id);
+        if (entries == null) {
+            entries = decode(ObjectStore.read(id));
+            TREES.put(id, entries);
+        }
+        return entries;
+    }
+
+    /** Returns ENTRIES as a tree record. */
+    static byte[] encode(TreeMap<String, String> entries) {
+        return new Codec.Encoder(MAGIC, VERSION).writeFiles(entries).finish();
+    }
+
+    /** Returns the entries of the tree record DATA. */
+    static TreeMap<String, String> decode(byte[] data) {
+        return new Codec.Decoder(data, MAGIC, VERSION).readFiles();
+    }
+
+    /** Returns the id of the tree holding FILES, a map from path to blob
+     *  id, storing any of its trees that are new. */
+    static String build(Map<String, String> files) {
+        return update(null, files);
+    }
+
+    /** Returns the id of the tree ROOT with CHANGES applied, storing any
+     *  trees that are new.  CHANGES maps paths to their new blob ids, or to
+     *  null for paths to remove.  Only the trees on the changed paths are
+     *  read or written. */
+    static String update(String root, Map<String, String> changes) {
+        if (changes.isEmpty()) {
+            return root;
+        }
+        TreeMap<String, String> entries = new TreeMap<>(entries(root));
+        HashMap<String, TreeMap<String, String>> subdirs = new HashMap<>();
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            String path = change.getKey();
+            int slash = path.indexOf('/');
+            if (slash >= 0) {
+                subdirs.computeIfAbsent(path.substring(0, slash + 1), dir -> new TreeMap<>())
+                    .put(path.substring(slash + 1), change.getValue());
+            } else if (change.getValue() == null) {
+                entries.remove(path);
+            } else {
+                entries.put(path, change.getValue());
+            }
+        }
+        for (Map.Entry<String, TreeMap<String, String>> subdir : subdirs.entrySet()) {
+            String id = update(entries.get(subdir.getKey()), subdir.getValue());
+            if (id == null) {
+                entries.remove(subdir.getKey());
+            } else {
+                entries.put(subdir.getKey(), id);
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        String id = ObjectStore.write(encode(entries));
+        TREES.putIfAbsent(id, entries);
+        return id;
+    }
+
+    /** Returns the blob id of the file PATH in the tree ROOT, or null if
+     *  there is none.  Reads only the trees along PATH. */
+    static String lookup(String root, String path) {
+        String id = root;
+        int start = 0;
+        for (int slash = path.indexOf('/'); slash >= 0 && id != null;
+             slash = path.indexOf('/', start)) {
+            id = entries(id).get(path.substring(start, slash + 1));
+            start = slash + 1;
+        }
+        return id == null ? null : entries(id).get(path.substring(start));
+    }
+
+    /** Returns those of PATHS that are files of the tree ROOT, mapped to
+     *  their blob ids. */
+    static TreeMap<String, String> select(String root, Collection<String> paths) {
+        TreeMap<String, String> files = new TreeMap<>();
+        for (String path : paths) {
+            String id = lookup(root, path);
+            if (id != null) {
+                files.put(path, id);
+            }
+        }
+        return files;
+    }
+
+    /** Returns every file of the tree ROOT, by path. */
+    static TreeMap<String, String> flatten(String root) {
+        TreeMap<String, String> files = new TreeMap<>();
+        flatten(root, "", files);
+        return files;
+    }
+
+    /** Adds every file of the tree ROOT to FILES, under PREFIX. */
+    private static void flatten(String root, String prefix, TreeMap<String, String> files) {
+        for (Map.Entry<String, String> entry : entries(root).entrySet()) {
+            if (entry.getKey().endsWith("/")) {
+                flatten(entry.getValue(), prefix + entry.getKey(), files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /** Calls VISITOR with the path (under PREFIX) and id of each file and
+     *  subtree of the tree ROOT, each subtree before its contents, skipping
+     *  subtrees whose ids are in SEEN and adding the rest to it.  Subtree
+     *  paths end in '/'. */
+    static void walk(String root, String prefix, Set<String> seen,
+                     BiConsumer<String, String> visitor) {
+        for (Map.Entry<String, String> entry : entries(root).entrySet()) {
+            String path = prefix + entry.getKey();
+            if (!path.endsWith("/")) {
+                visitor.accept(path, entry.getValue());
+            } else if (seen.add(entry.getValue())) {
+                visitor.accept(path, entry.getValue());
+                walk(entry.getValue(), path, seen, visitor);
+            }
+        }
+    }
+
+    /** Adds to BEFORE and AFTER the files, under PREFIX, that differ between
+     *  the trees A and B, with their ids in A and in B respectively; a file
+     *  missing from one side is missing from that map.  Subtrees with the
+     *  same id on both sides are skipped without being read. */
+    static void diff(String a, String b, String prefix, Map<String, String> before,
+                     Map<String, String> after) {
+        if (Objects.equals(a, b)) {
+            return;
+        }
+        TreeMap<String, String> left = entries(a);
+        TreeMap<String, String> right = entries(b);
+        TreeSet<String> names = new TreeSet<>(left.keySet());
+        names.addAll(right.keySet());
+        for (String name : names) {
+            String oldID = left.get(name);
+            String newID = right.get(name);
+            if (name.endsWith("/")) {
+                diff(oldID, newID, prefix + name, before, after);
+            } else if (!Objects.equals(oldID, newID)) {
+                if (oldID != null) {
+                    before.put(prefix + name, oldID);
+                }
+                if (newID != null) {
+                    after.put(prefix + name, newID);
+                }
+            }
+        }
+    }
+}
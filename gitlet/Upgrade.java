@@ -0,0 +1,437 @@
+package gitlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/** The one-time upgrade of a repository made before refs, whose branches,
+ *  staging area and current branch lived in the Java-serialized files
+ *  .gitlet/global and .gitlet/branches, and whose commits were
+ *  Java-serialized too (the oldest with the contents of their files
+ *  inline, before there was an object store, and the parents as whole
+ *  commits rather than ids).  The classes those files were written from
+ *  no longer exist in that shape, so they are decoded by a small reader
+ *  for the serialization stream format that yields every object's fields
+ *  by name, whatever its class looked like.
+ *
+ *  The upgrade stores any inline contents in the ObjectStore, deflates
+ *  loose objects written before they were compressed, rewrites every
+ *  commit in the Codec format under its old id, and writes the refs, HEAD
+ *  and the stage of the current branch.  The caches derived from commits
+ *  are dropped, to be rebuilt on first use.  HEAD is written last and the
+ *  old files are removed only after it, so an upgrade cut short is simply
+ *  run again.
+ */
+class Upgrade {
+
+    /** The Java-serialized repository of the old format. */
+    static final File GLOBAL_FILE = Utils.join(Repository.GITLET_DIR, "global");
+    /** The Java-serialized branches of the old format, one file each. */
+    static final File BRANCHES_CWD = Utils.join(Repository.GITLET_DIR, "branches");
+
+    /** Returns true iff the repository is in the old format. */
+    static boolean needed() {
+        return GLOBAL_FILE.isFile() && !Refs.HEAD_FILE.isFile();
+    }
+
+    /** Upgrades the repository to the current format. */
+    static void run() {
+        byte[] global = Utils.readContents(GLOBAL_FILE);
+        Obj repo = (Obj) read(Utils.readCompressed(GLOBAL_FILE));
+        if (!Utils.isDeflated(global)) {
+            deflateObjects();
+        }
+        Utils.join(Repository.GITLET_DIR, "objects").mkdir();
+        deleteAll(CommitGraph.GRAPH_FILE, CommitGraph.LAYERS_CWD, Journal.JOURNAL_FILE,
+                  MessageIndex.MESSAGES_CWD, Index.INDEX_FILE);
+        for (String name : Utils.plainFilenamesIn(Commit.COMMIT_CWD)) {
+            File file = Utils.join(Commit.COMMIT_CWD, name);
+            byte[] data = Utils.readCompressed(file);
+            if (Codec.isLegacy(data)) {
+                Utils.writeCompressed(file, commit((Obj) read(data)).encode());
+            }
+        }
+
+        Map<String, Obj> branches = new TreeMap<>();
+        List<Object> entries = contents(repo.get("branches"));
+        for (int i = 0; i < entries.size(); i += 2) {
+            branches.put((String) entries.get(i), effective((Obj) entries.get(i + 1)));
+        }
+        for (Map.Entry<String, Obj> branch : branches.entrySet()) {
+            Refs.write(branch.getKey(), id(branch.getValue().get("latestCommit")));
+        }
+        String head = (String) repo.get("branchName");
+        Obj current = effective((Obj) repo.get("currentBranch"));
+        if (head == null && current != null) {
+            head = (String) current.get("name");
+        }
+        if (head == null || !branches.containsKey(head)) {
+            throw Utils.error("Cannot upgrade repository: no current branch.");
+        }
+        if (current == null) {
+            current = branches.get(head);
+        }
+
+        if (Stage.SRAGE_CWD.isDirectory()) {
+            deleteAll(Stage.SRAGE_CWD);
+        }
+        Stage.discard();
+        Stage.clear();
+        files(current.get("stageAdd")).forEach(Stage::addFile);
+        files(current.get("stageRemove")).forEach(Stage::removeFile);
+        Refs.setHead(head);
+        Stage.save();
+        Refs.save();
+        deleteAll(GLOBAL_FILE, BRANCHES_CWD);
+    }
+
+    /** Returns the commit of the current format equivalent to the old
+     *  commit OLD. */
+    private static Commit commit(Obj old) {
+        Object timestamp = old.get("timestamp");
+        return new Commit((String) old.get("id"), id(old.get("parent")),
+                          (String) old.get("secondParent"),
+                          timestamp instanceof Long ? (Long) timestamp : 0,
+                          (String) old.get("time"), (String) old.get("message"),
+                          files(old.get("blobs")));
+    }
+
+    /** Returns the id of the commit REF, which is either an id or, in the
+     *  oldest format, the commit itself.  Returns null if REF is null. */
+    private static String id(Object ref) {
+        return ref instanceof Obj ? (String) ((Obj) ref).get("id") : (String) ref;
+    }
+
+    /** Returns the file map MAP as file name to blob id.  MAP maps names
+     *  to ids, or, in the oldest format, blob ids to blobs holding the
+     *  name and contents; those contents are stored. */
+    private static TreeMap<String, String> files(Object map) {
+        TreeMap<String, String> result = new TreeMap<>();
+        List<Object> entries = contents(map);
+        for (int i = 0; i < entries.size(); i += 2) {
+            Object value = entries.get(i + 1);
+            if (value instanceof Obj) {
+                Obj blob = (Obj) value;
+                result.put((String) blob.get("name"),
+                           ObjectStore.write((byte[]) blob.get("file")));
+            } else {
+                result.put((String) entries.get(i), (String) value);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the branch whose state BRANCH stands for.  An old branch
+     *  read from its own file kept its state in the one it referred to. */
+    private static Obj effective(Obj branch) {
+        Set<Obj> seen = new HashSet<>();
+        while (branch != null && seen.add(branch)
+               && branch.get("currentBranch") instanceof Obj) {
+            branch = (Obj) branch.get("currentBranch");
+        }
+        return branch;
+    }
+
+    /** Deflates, in place, every loose object still stored as its plain
+     *  contents, as they were before objects were compressed. */
+    private static void deflateObjects() {
+        File[] dirs = Utils.join(Repository.GITLET_DIR, "objects").listFiles();
+        for (File dir : dirs == null ? new File[0] : dirs) {
+            List<String> names = Utils.plainFilenamesIn(dir);
+            if (dir.getName().length() != 2 || names == null) {
+                continue;
+            }
+            for (String name : names) {
+                File file = Utils.join(dir, name);
+                byte[] contents = Utils.readContents(file);
+                if (!Utils.sha1(contents).equals(dir.getName() + name)) {
+                    continue;
+                }
+                File temp = Utils.join(dir, name + ".tmp");
+                Utils.writeCompressed(temp, contents);
+                try {
+                    Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                               StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException excp) {
+                    throw Utils.error("Cannot upgrade object %s: %s", dir.getName() + name,
+                                      excp.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Deletes FILES, including everything in any that are directories. */
+    private static void deleteAll(File... files) {
+        for (File file : files) {
+            File[] children = file.listFiles();
+            if (children != null) {
+                deleteAll(children);
+            }
+            file.delete();
+        }
+    }
+
+    /** Returns the object serialized in DATA. */
+    private static Object read(byte[] data) {
+        try {
+            return new Reader(data).readContent();
+        } catch (IOException | RuntimeException excp) {
+            throw Utils.error("Cannot upgrade repository: %s", excp.getMessage());
+        }
+    }
+
+    /** Returns the elements of the serialized collection COLLECTION, with
+     *  keys and values alternating for a map.  Empty if it is null. */
+    private static List<Object> contents(Object collection) {
+        List<Object> result = new ArrayList<>();
+        if (collection == null) {
+            return result;
+        }
+        Obj obj = (Obj) collection;
+        result.addAll(obj.annotation);
+        if (obj.className.equals("java.util.TreeSet")) {
+            result.remove(0);
+        }
+        return result;
+    }
+
+    /** An object read from a serialization stream: its fields by name,
+     *  and the objects the writeObject methods of its classes wrote after
+     *  them, which for the collections are their elements (a TreeSet
+     *  writes its comparator first).  Block data is dropped. */
+    private static class Obj {
+        final String className;
+        final Map<String, Object> fields = new HashMap<>();
+        final List<Object> annotation = new ArrayList<>();
+
+        Obj(String className) {
+            this.className = className;
+        }
+
+        Object get(String field) {
+            return fields.get(field);
+        }
+    }
+
+    /** A class description from a serialization stream. */
+    private static class Desc {
+        String name;
+        int flags;
+        final List<Character> types = new ArrayList<>();
+        final List<String> names = new ArrayList<>();
+        Desc superDesc;
+    }
+
+    /** A reader for the grammar of the Java Object Serialization
+     *  Specification, section 6.4.  Objects become Objs, strings Strings,
+     *  byte arrays byte[], other arrays Object[], enum constants their
+     *  names and primitive fields their boxed values. */
+    private static class Reader implements ObjectStreamConstants {
+        private final DataInputStream in;
+        /** Everything assigned a handle so far, in order. */
+        private final List<Object> handles = new ArrayList<>();
+
+        Reader(byte[] data) throws IOException {
+            in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readShort() != STREAM_MAGIC || in.readShort() != STREAM_VERSION) {
+                throw new IOException("not a serialization stream");
+            }
+        }
+
+        Object readContent() throws IOException {
+            return readContent(in.readUnsignedByte());
+        }
+
+        /** Reads the element that starts with type code TC. */
+        private Object readContent(int tc) throws IOException {
+            switch (tc) {
+                case TC_NULL:
+                    return null;
+                case TC_REFERENCE:
+                    return handles.get(in.readInt() - baseWireHandle);
+                case TC_STRING:
+                    return handle(in.readUTF());
+                case TC_LONGSTRING:
+                    return handle(new String(bytes(in.readLong()), StandardCharsets.UTF_8));
+                case TC_OBJECT:
+                    return readObject();
+                case TC_ARRAY:
+                    return readArray();
+                case TC_ENUM: {
+                    readDesc();
+                    int handle = reserve();
+                    Object name = readContent();
+                    handles.set(handle, name);
+                    return name;
+                }
+                case TC_CLASS:
+                    return handle(readDesc());
+                case TC_CLASSDESC:
+                case TC_PROXYCLASSDESC:
+                    return readDesc(tc);
+                case TC_RESET:
+                    handles.clear();
+                    return readContent();
+                default:
+                    throw new IOException("unexpected type code " + tc);
+            }
+        }
+
+        private Desc readDesc() throws IOException {
+            return readDesc(in.readUnsignedByte());
+        }
+
+        /** Reads the class description that starts with type code TC. */
+        private Desc readDesc(int tc) throws IOException {
+            Desc desc = new Desc();
+            switch (tc) {
+                case TC_NULL:
+                    return null;
+                case TC_REFERENCE:
+                    return (Desc) handles.get(in.readInt() - baseWireHandle);
+                case TC_CLASSDESC:
+                    desc.name = in.readUTF();
+                    in.readLong();
+                    handle(desc);
+                    desc.flags = in.readUnsignedByte();
+                    for (int n = in.readShort(); n > 0; n -= 1) {
+                        char type = (char) in.readUnsignedByte();
+                        desc.types.add(type);
+                        desc.names.add(in.readUTF());
+                        if (type == 'L' || type == '[') {
+                            readContent();
+                        }
+                    }
+                    break;
+                case TC_PROXYCLASSDESC:
+                    desc.name = "proxy";
+                    handle(desc);
+                    desc.flags = SC_SERIALIZABLE;
+                    for (int n = in.readInt(); n > 0; n -= 1) {
+                        in.readUTF();
+                    }
+                    break;
+                default:
+                    throw new IOException("unexpected type code " + tc);
+            }
+            readAnnotation(new Obj(desc.name));
+            desc.superDesc = readDesc();
+            return desc;
+        }
+
+        private Obj readObject() throws IOException {
+            Desc desc = readDesc();
+            Obj obj = handle(new Obj(desc.name));
+            List<Desc> hierarchy = new ArrayList<>();
+            for (Desc d = desc; d != null; d = d.superDesc) {
+                hierarchy.add(0, d);
+            }
+            for (Desc d : hierarchy) {
+                if ((d.flags & SC_EXTERNALIZABLE) != 0) {
+                    if ((d.flags & SC_BLOCK_DATA) == 0) {
+                        throw new IOException("cannot read " + d.name);
+                    }
+                    readAnnotation(obj);
+                    continue;
+                }
+                for (int i = 0; i < d.types.size(); i += 1) {
+                    obj.fields.put(d.names.get(i), readValue(d.types.get(i)));
+                }
+                if ((d.flags & SC_WRITE_METHOD) != 0) {
+                    readAnnotation(obj);
+                }
+            }
+            return obj;
+        }
+
+        private Object readArray() throws IOException {
+            Desc desc = readDesc();
+            int handle = reserve();
+            int length = in.readInt();
+            char type = desc.name.charAt(1);
+            if (type == 'B') {
+                byte[] array = bytes(length);
+                handles.set(handle, array);
+                return array;
+            }
+            Object[] array = new Object[length];
+            handles.set(handle, array);
+            for (int i = 0; i < length; i += 1) {
+                array[i] = readValue(type);
+            }
+            return array;
+        }
+
+        /** Reads the contents written by a writeObject method, up to the
+         *  end of block data, adding the objects to the annotation of OBJ. */
+        private void readAnnotation(Obj obj) throws IOException {
+            for (int tc = in.readUnsignedByte(); tc != TC_ENDBLOCKDATA;
+                 tc = in.readUnsignedByte()) {
+                if (tc == TC_BLOCKDATA) {
+                    bytes(in.readUnsignedByte());
+                } else if (tc == TC_BLOCKDATALONG) {
+                    bytes(in.readInt());
+                } else {
+                    obj.annotation.add(readContent(tc));
+                }
+            }
+        }
+
+        /** Reads a field or array element of type code TYPE. */
+        private Object readValue(char type) throws IOException {
+            switch (type) {
+                case 'B':
+                    return in.readByte();
+                case 'C':
+                    return in.readChar();
+                case 'D':
+                    return in.readDouble();
+                case 'F':
+                    return in.readFloat();
+                case 'I':
+                    return in.readInt();
+                case 'J':
+                    return in.readLong();
+                case 'S':
+                    return in.readShort();
+                case 'Z':
+                    return in.readBoolean();
+                default:
+                    return readContent();
+            }
+        }
+
+        private byte[] bytes(long length) throws IOException {
+            if (length < 0 || length > in.available()) {
+                throw new IOException("truncated stream");
+            }
+            byte[] result = new byte[(int) length];
+            in.readFully(result);
+            return result;
+        }
+
+        private <T> T handle(T value) {
+            handles.add(value);
+            return value;
+        }
+
+        /** Assigns the next handle to a value not read yet, and returns
+         *  it. */
+        private int reserve() {
+            handles.add(null);
+            return handles.size() - 1;
+        }
+    }
+}
@@ -1,13 +1,16 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -15,8 +18,14 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 import gitlet.GitletException;
 
 
@@ -48,16 +57,44 @@ class Utils {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
             }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
-            }
-            return result.toString();
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns a fresh SHA-1 MessageDigest. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
         }
     }
 
+    /** Returns the bytes denoted by the hexadecimal numeral HEX. */
+    static byte[] fromHex(String hex) {
+        byte[] result = new byte[hex.length() / 2];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = (byte) (Character.digit(hex.charAt(2 * i), 16) << 4
+                                | Character.digit(hex.charAt(2 * i + 1), 16));
+        }
+        return result;
+    }
+
+    /** Lower-case hexadecimal digits, by value. */
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Returns BYTES as a lower-case hexadecimal numeral. */
+    static String toHex(byte[] bytes) {
+        char[] result = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i += 1) {
+            result[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            result[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(result);
+    }
+
     /** Returns the SHA-1 hash of the concatenation of the strings in
      *  VALS. */
     static String sha1(List<Object> vals) {
@@ -143,7 +180,7 @@ class Utils {
                                                  Class<T> expectedClass) {
         try {
             ObjectInputStream in =
-                new ObjectInputStream(new FileInputStream(file));
+                new ObjectInputStream(new ByteArrayInputStream(readCompressed(file)));
             T result = expectedClass.cast(in.readObject());
             in.close();
             return result;
@@ -155,7 +192,96 @@ class Utils {
 
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
-        writeContents(file, serialize(obj));
+        writeCompressed(file, serialize(obj));
+    }
+
+    /* COMPRESSED FILES */
+
+    /** The zlib level used for everything written compressed, taken from
+     *  the gitlet.compression system property (0-9, or -1 for zlib's
+     *  default).  Low levels trade disk and I/O for CPU time. */
+    static final int COMPRESSION_LEVEL =
+        Integer.getInteger("gitlet.compression", Deflater.DEFAULT_COMPRESSION);
+
+    /** Return a stream that deflates everything written to it into FILE,
+     *  creating or overwriting it as needed, at COMPRESSION_LEVEL. */
+    static OutputStream compressedOutput(File file) throws IOException {
+        if (COMPRESSION_LEVEL < Deflater.DEFAULT_COMPRESSION
+            || COMPRESSION_LEVEL > Deflater.BEST_COMPRESSION) {
+            throw error("Invalid compression level %d.", COMPRESSION_LEVEL);
+        }
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        OutputStream out =
+            new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+        return new DeflaterOutputStream(out, deflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /** Return a stream of the inflated contents of FILE. */
+    static InputStream compressedInput(File file) throws IOException {
+        return new InflaterInputStream(
+            new BufferedInputStream(Files.newInputStream(file.toPath())));
+    }
+
+    /** Return the inflated contents of FILE, which must have been written
+     *  through compressedOutput, or its contents as they are if it has no
+     *  zlib header, as do the files of repositories made before gitlet
+     *  compressed them.  Throws IllegalArgumentException in case of
+     *  problems. */
+    static byte[] readCompressed(File file) {
+        byte[] contents = readContents(file);
+        if (!isDeflated(contents)) {
+            return contents;
+        }
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(contents))) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
+    /** Returns true iff CONTENTS start with a zlib header, as everything
+     *  written by compressedOutput does: a deflate method byte with a
+     *  32K window (0x78) and a flag byte making the pair a multiple of 31.
+     *  Java-serialized objects (0xaced) and Codec records never do. */
+    static boolean isDeflated(byte[] contents) {
+        return contents.length >= 2 && contents[0] == 0x78
+            && (0x7800 | contents[1] & 0xff) % 31 == 0;
+    }
+
+    /** Return CONTENTS deflated at COMPRESSION_LEVEL. */
+    static byte[] deflate(byte[] contents) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(COMPRESSION_LEVEL);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Write CONTENTS to FILE deflated, creating or overwriting it as
+     *  needed.  Throws IllegalArgumentException in case of problems. */
+    static void writeCompressed(File file, byte[] contents) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        try (OutputStream out = compressedOutput(file)) {
+            out.write(contents);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /* DIRECTORIES */
@@ -223,6 +349,32 @@ class Utils {
 
 
 
+    /* CACHES */
+
+    /** Return a thread-safe map that holds at most CAPACITY entries,
+     *  dropping the least recently used one when it would grow past that.
+     *  For caches that live as long as the process, as in the daemon. */
+    static <K, V> Map<K, V> lruCache(int capacity) {
+        return Collections.synchronizedMap(new LruMap<>(capacity));
+    }
+
+    /** The access-ordered map behind lruCache. */
+    private static class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        LruMap(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+
     /* MESSAGES AND ERROR REPORTING */
 
     /** Return a GitletException whose message is composed from MSG and ARGS as
@@ -0,0 +1,261 @@
+package gitlet;
+
+import java.io.File;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Collectors;
+
+/** The scanner every command uses to look at the working directory.  The
+ *  tree is walked recursively on a ForkJoinPool, one task per directory,
+ *  and the files found are then hashed in parallel through the Index, so
+ *  only files whose stat data changed are actually read.  Paths are
+ *  relative to Repository.CWD and always use '/' as the separator.
+ */
+class WorkingTree {
+
+    /** Pool shared by the walk and the hashing. */
+    private static final ForkJoinPool POOL =
+        new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** The working tree classified against what the next commit would
+     *  contain (the head commit with the staging area applied). */
+    static class Status {
+        /** Present and identical to what would be committed. */
+        final TreeSet<String> tracked = new TreeSet<>();
+        /** Present but different from what would be committed. */
+        final TreeSet<String> modified = new TreeSet<>();
+        /** Present but neither tracked nor staged. */
+        final TreeSet<String> untracked = new TreeSet<>();
+        /** Tracked or staged for addition, but missing. */
+        final TreeSet<String> deleted = new TreeSet<>();
+    }
+
+    /** Returns the paths of all plain files in the working tree, sorted. */
+    static List<String> files() {
+        List<String> files = POOL.invoke(new Walk(Repository.CWD, ""));
+        files.sort(null);
+        return files;
+    }
+
+    /** Returns the files named by PATHSPEC, sorted: the file itself, every
+     *  file under a directory, or, if PATHSPEC contains any of "*?[{",
+     *  every file whose path matches it as a glob ("**" also matches
+     *  across directories).  PATHSPEC is relative to Repository.CWD.
+     *  Returns an empty list if nothing matches. */
+    static List<String> expand(String pathspec) {
+        String name = normalize(pathspec);
+        if (name == null) {
+            return Collections.emptyList();
+        }
+        if (name.matches(".*[*?\\[{].*")) {
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + name);
+            List<String> files = files();
+            files.removeIf(file -> !matcher.matches(Path.of(file)));
+            return files;
+        }
+        File file = Utils.join(Repository.CWD, name);
+        if (name.isEmpty() || Files.isDirectory(file.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            List<String> files = POOL.invoke(new Walk(file, name.isEmpty() ? "" : name + "/"));
+            files.sort(null);
+            return files;
+        }
+        return file.isFile() ? List.of(name) : Collections.emptyList();
+    }
+
+    /** Returns PATHSPEC as a path relative to Repository.CWD using '/',
+     *  with "." and ".." resolved ("" for the root itself), or null if it
+     *  lies outside the working tree or inside .gitlet. */
+    static String normalize(String pathspec) {
+        Path root = Repository.CWD.toPath();
+        String name = root.relativize(root.resolve(pathspec).normalize()).toString()
+            .replace(File.separatorChar, '/');
+        if (name.equals("..") || name.startsWith("../") || name.equals(".gitlet")
+            || name.startsWith(".gitlet/")) {
+            return null;
+        }
+        return name;
+    }
+
+    /** Returns the ids of those of the working-tree files NAMES that are
+     *  present, by name, hashing in parallel through the Index. */
+    static TreeMap<String, String> ids(List<String> names) {
+        Map<String, String> ids = new ConcurrentHashMap<>();
+        POOL.submit(() -> names.parallelStream().forEach(name -> {
+            if (Utils.join(Repository.CWD, name).isFile()) {
+                try {
+                    ids.put(name, Index.idOf(name));
+                } catch (IllegalArgumentException excp) {
+                    // Removed while we were looking; treat it as absent.
+                }
+            }
+        })).join();
+        return new TreeMap<>(ids);
+    }
+
+    /** Stores the working-tree files NAMES in the ObjectStore, in
+     *  parallel, and returns their blobs in the same order. */
+    static List<Blob> store(List<String> names) {
+        return POOL.submit(() -> names.parallelStream().map(Blob::store)
+                           .collect(Collectors.toList())).join();
+    }
+
+    /** Changes the working tree from the files of commit FROM to those of
+     *  commit TO, touching only the paths where they differ: files only in
+     *  FROM are deleted (with any directories left empty), and files only
+     *  in TO or different there are written.  A file both commits share is
+     *  left alone unless it is missing or was changed, so unchanged files
+     *  keep their mtimes.  Deletes happen first, so a directory can give
+     *  way to a file of the same name; writes run in parallel. */
+    static void switchTo(Commit from, Commit to) {
+        TreeMap<String, String> before = from.getBlobs();
+        TreeMap<String, String> after = to.getBlobs();
+        List<String> removed = new ArrayList<>();
+        for (String name : before.keySet()) {
+            if (!after.containsKey(name)) {
+                removed.add(name);
+            }
+        }
+        List<String> candidates = new ArrayList<>(after.keySet());
+        POOL.submit(() -> removed.parallelStream().forEach(name -> {
+            Utils.join(Repository.CWD, name).delete();
+            Index.remove(name);
+        })).join();
+        for (String name : removed) {
+            prune(Utils.join(Repository.CWD, name).getParentFile());
+        }
+        POOL.submit(() -> candidates.parallelStream().forEach(name -> {
+            String id = after.get(name);
+            if (!id.equals(before.get(name)) || !id.equals(currentID(name))) {
+                restore(name, id);
+            }
+        })).join();
+    }
+
+    /** Writes the object ID to the working-tree file NAME, replacing
+     *  whatever is there, and records it in the Index. */
+    static void restore(String name, String id) {
+        File file = Utils.join(Repository.CWD, name);
+        if (file.exists()) {
+            file.delete();
+        }
+        file.getParentFile().mkdirs();
+        ObjectStore.copyTo(id, file);
+        Index.update(name, id);
+    }
+
+    /** Returns the id of the working-tree file NAME, or null if it is
+     *  missing or not a plain file. */
+    private static String currentID(String name) {
+        if (!Utils.join(Repository.CWD, name).isFile()) {
+            return null;
+        }
+        try {
+            return Index.idOf(name);
+        } catch (IllegalArgumentException excp) {
+            return null;
+        }
+    }
+
+    /** Removes DIR and its ancestors below Repository.CWD while they are
+     *  empty. */
+    private static void prune(File dir) {
+        while (!dir.equals(Repository.CWD) && dir.delete()) {
+            dir = dir.getParentFile();
+        }
+    }
+
+    /** Returns every plain file in the working tree mapped to its object id. */
+    static TreeMap<String, String> ids() {
+        List<String> files = POOL.invoke(new Walk(Repository.CWD, ""));
+        Map<String, String> ids = new ConcurrentHashMap<>();
+        POOL.submit(() -> files.parallelStream().forEach(name -> {
+            try {
+                ids.put(name, Index.idOf(name));
+            } catch (IllegalArgumentException excp) {
+                // Removed while we were looking; treat it as absent.
+            }
+        })).join();
+        return new TreeMap<>(ids);
+    }
+
+    /** Returns the status of the working tree relative to HEAD with
+     *  STAGEADD and STAGEREMOVE (file name to blob id) applied. */
+    static Status status(Commit head, Map<String, String> stageAdd,
+                         Map<String, String> stageRemove) {
+        TreeMap<String, String> expected = new TreeMap<>(head.getBlobs());
+        expected.putAll(stageAdd);
+        expected.keySet().removeAll(stageRemove.keySet());
+        TreeMap<String, String> present = ids();
+        Status status = new Status();
+        for (Map.Entry<String, String> file : present.entrySet()) {
+            String id = expected.get(file.getKey());
+            if (id == null) {
+                status.untracked.add(file.getKey());
+            } else if (id.equals(file.getValue())) {
+                status.tracked.add(file.getKey());
+            } else {
+                status.modified.add(file.getKey());
+            }
+        }
+        for (String name : expected.keySet()) {
+            if (!present.containsKey(name)) {
+                status.deleted.add(name);
+            }
+        }
+        return status;
+    }
+
+    /** Collects the files under one directory, forking a task for each
+     *  subdirectory.  Symbolic links to directories are not followed, so a
+     *  link back up the tree cannot make the walk loop or reach .gitlet. */
+    private static class Walk extends RecursiveTask<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        private final File dir;
+        private final String prefix;
+
+        Walk(File dir, String prefix) {
+            this.dir = dir;
+            this.prefix = prefix;
+        }
+
+        @Override
+        protected List<String> compute() {
+            List<String> files = new ArrayList<>();
+            File[] children = dir.listFiles();
+            if (children == null) {
+                return files;
+            }
+            List<Walk> subdirs = new ArrayList<>();
+            for (File child : children) {
+                String name = child.getName();
+                if (prefix.isEmpty() && (name.equals(".gitlet") || name.equals("gitlet"))) {
+                    continue;
+                }
+                if (Files.isDirectory(child.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                    Walk walk = new Walk(child, prefix + name + "/");
+                    walk.fork();
+                    subdirs.add(walk);
+                } else if (child.isFile()) {
+                    files.add(prefix + name);
+                }
+            }
+            for (Walk walk : subdirs) {
+                files.addAll(walk.join());
+            }
+            return files;
+        }
+    }
+}